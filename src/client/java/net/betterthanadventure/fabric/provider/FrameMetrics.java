@@ -0,0 +1,177 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Opt-in client frame timing, enabled with <code>-Dfabric.btaProvider.frameMetrics</code>.
+ *
+ * <p>The entrypoint transformer calls {@link #frame()} before the first call to an anchor method inside
+ * <code>Minecraft.run()</code>'s main loop, <code>updateTimer()V</code> unless set with
+ * <code>-Dfabric.btaProvider.frameMetrics.anchor=name(desc)</code>. The time between two calls is one frame. Recording
+ * doesn't allocate, it only reads the clock and updates two {@link LogHistogram}s: one since startup for the MXBean and
+ * {@link #get()}, one for the periodic log line, which is written every
+ * <code>fabric.btaProvider.frameMetrics.logSeconds</code> (default 60, 0 disables it).
+ *
+ * <p>The game classes resolve this class through the parent of Knot's class loader like they do for
+ * {@link net.fabricmc.loader.impl.game.minecraft.Hooks}, so they share its state with the provider.
+ */
+public final class FrameMetrics implements FrameMetricsMXBean {
+	static final String PROPERTY = "fabric.btaProvider.frameMetrics";
+	static final String ANCHOR_PROPERTY = "fabric.btaProvider.frameMetrics.anchor";
+	static final String STUTTER_MILLIS_PROPERTY = "fabric.btaProvider.frameMetrics.stutterMillis";
+	static final String LOG_SECONDS_PROPERTY = "fabric.btaProvider.frameMetrics.logSeconds";
+	private static final String DEFAULT_ANCHOR = "updateTimer()V";
+	private static final String INTERNAL_NAME = FrameMetrics.class.getName().replace('.', '/');
+
+	private static final FrameMetrics INSTANCE = new FrameMetrics();
+
+	private final LogHistogram frames = new LogHistogram();
+	private final LogHistogram window = new LogHistogram();
+	private final AtomicLong stutters = new AtomicLong();
+	private final AtomicLong windowStutters = new AtomicLong();
+	private final long stutterNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong(STUTTER_MILLIS_PROPERTY, 50));
+	private long lastFrameNanos;
+
+	private FrameMetrics() { }
+
+	/**
+	 * @return the frame metrics, empty unless <code>-Dfabric.btaProvider.frameMetrics</code> is set
+	 */
+	public static FrameMetricsMXBean get() {
+		return INSTANCE;
+	}
+
+	static boolean isEnabled() {
+		return System.getProperty(PROPERTY) != null;
+	}
+
+	/**
+	 * @return the hook marking each frame in <code>run()</code>
+	 */
+	static HookSpec hook(String owner) {
+		String anchor = System.getProperty(ANCHOR_PROPERTY, DEFAULT_ANCHOR);
+		int descStart = anchor.indexOf('(');
+
+		if (descStart <= 0) {
+			throw new IllegalArgumentException("Invalid " + ANCHOR_PROPERTY + " '" + anchor + "', expected name(desc)");
+		}
+
+		return HookSpec.beforeCall("frame", owner, "run", "()V", anchor.substring(0, descStart), anchor.substring(descStart),
+				mv -> mv.visitMethodInsn(Opcodes.INVOKESTATIC, INTERNAL_NAME, "frame", "()V", false));
+	}
+
+	/**
+	 * Registers the MXBean and starts the periodic log line.
+	 */
+	static void start() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName("net.betterthanadventure:type=FrameMetrics"));
+		} catch (Exception e) {
+			Log.warn(LogCategory.GAME_PROVIDER, "Failed to register the frame metrics MXBean", e);
+		}
+
+		long logMillis = TimeUnit.SECONDS.toMillis(Long.getLong(LOG_SECONDS_PROPERTY, 60));
+		if (logMillis <= 0) return;
+
+		Thread thread = new Thread(() -> {
+			try {
+				for (;;) {
+					Thread.sleep(logMillis);
+					INSTANCE.logWindow();
+				}
+			} catch (InterruptedException ignored) {
+				// exit
+			}
+		}, "Frame metrics");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Called from the render thread once per frame.
+	 */
+	public static void frame() {
+		FrameMetrics metrics = INSTANCE;
+		long now = System.nanoTime();
+		long last = metrics.lastFrameNanos;
+		metrics.lastFrameNanos = now;
+		if (last == 0) return;
+
+		long elapsed = now - last;
+		metrics.frames.record(elapsed);
+		metrics.window.record(elapsed);
+
+		if (elapsed > metrics.stutterNanos) {
+			metrics.stutters.incrementAndGet();
+			metrics.windowStutters.incrementAndGet();
+		}
+	}
+
+	private void logWindow() {
+		long count = window.getCount();
+		if (count == 0) return;
+
+		Log.info(LogCategory.GAME_PROVIDER, "Frames: %d, mean %.2f ms, p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms, %d stutters over %d ms",
+				count, window.getMean() / 1e6, window.getQuantile(0.5) / 1e6, window.getQuantile(0.99) / 1e6,
+				window.getQuantile(0.999) / 1e6, window.getMax() / 1e6, windowStutters.get(), getStutterThresholdMillis());
+
+		window.reset();
+		windowStutters.set(0);
+	}
+
+	@Override
+	public long getFrameCount() {
+		return frames.getCount();
+	}
+
+	@Override
+	public double getMeanFrameMillis() {
+		return frames.getMean() / 1e6;
+	}
+
+	@Override
+	public double getP50FrameMillis() {
+		return frames.getQuantile(0.5) / 1e6;
+	}
+
+	@Override
+	public double getP99FrameMillis() {
+		return frames.getQuantile(0.99) / 1e6;
+	}
+
+	@Override
+	public double getP999FrameMillis() {
+		return frames.getQuantile(0.999) / 1e6;
+	}
+
+	@Override
+	public double getMaxFrameMillis() {
+		return frames.getMax() / 1e6;
+	}
+
+	@Override
+	public long getStutterCount() {
+		return stutters.get();
+	}
+
+	@Override
+	public long getStutterThresholdMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(stutterNanos);
+	}
+
+	@Override
+	public void reset() {
+		frames.reset();
+		stutters.set(0);
+		window.reset();
+		windowStutters.set(0);
+	}
+}
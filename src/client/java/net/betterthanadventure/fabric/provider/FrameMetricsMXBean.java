@@ -0,0 +1,26 @@
+package net.betterthanadventure.fabric.provider;
+
+/**
+ * Client frame times, registered as <code>net.betterthanadventure:type=FrameMetrics</code> when
+ * <code>-Dfabric.btaProvider.frameMetrics</code> is set. Times are milliseconds since startup or the last
+ * {@link #reset()}.
+ */
+public interface FrameMetricsMXBean {
+	long getFrameCount();
+
+	double getMeanFrameMillis();
+
+	double getP50FrameMillis();
+
+	double getP99FrameMillis();
+
+	double getP999FrameMillis();
+
+	double getMaxFrameMillis();
+
+	long getStutterCount();
+
+	long getStutterThresholdMillis();
+
+	void reset();
+}
@@ -0,0 +1,300 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+import net.fabricmc.loader.impl.util.log.LogHandler;
+import net.fabricmc.loader.impl.util.log.LogLevel;
+
+/**
+ * {@link LogHandler} that hands messages to a single writer thread through a bounded lock-free ring buffer, so the
+ * calling thread never waits for the delegate's layout or output. Enabled with
+ * <code>-Dfabric.btaProvider.asyncLog</code>. The delegate sees the calling thread's name: the writer takes on the name
+ * of the thread whose messages it is writing, renaming itself only when that changes, and gets its own name back
+ * when it goes idle.
+ *
+ * <p><code>fabric.btaProvider.asyncLog.capacity</code> sets the buffer size (rounded up to a power of two, default
+ * 8192, at most 2^30). <code>fabric.btaProvider.asyncLog.overflow</code> picks what happens when it is full: <code>block</code>
+ * waits for space (default), <code>drop-debug</code> drops debug and trace messages and waits for the rest, and
+ * <code>drop-oldest</code> discards the oldest queued message. Everything still queued is written on
+ * {@link #close()} and at JVM shutdown, after which messages go straight to the delegate.
+ */
+final class AsyncLogHandler implements LogHandler {
+	static final String PROPERTY = "fabric.btaProvider.asyncLog";
+	static final String CAPACITY_PROPERTY = "fabric.btaProvider.asyncLog.capacity";
+	static final String OVERFLOW_PROPERTY = "fabric.btaProvider.asyncLog.overflow";
+	private static final String WRITER_NAME = "BTA provider log writer";
+
+	enum OverflowPolicy {
+		BLOCK,
+		DROP_DEBUG,
+		DROP_OLDEST;
+
+		static OverflowPolicy parse(String value) {
+			if (value == null) return BLOCK;
+
+			try {
+				return valueOf(value.toUpperCase(Locale.ROOT).replace('-', '_'));
+			} catch (IllegalArgumentException e) {
+				Log.warn(LogCategory.GAME_PROVIDER, "Invalid %s '%s', expected block, drop-debug or drop-oldest, using block", OVERFLOW_PROPERTY, value);
+				return BLOCK;
+			}
+		}
+	}
+
+	private final LogHandler delegate;
+	private final OverflowPolicy policy;
+	private final RingBuffer buffer;
+	private final Thread writer;
+	private final Thread shutdownHook;
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile boolean writerParked;
+	private volatile boolean closed;
+
+	AsyncLogHandler(LogHandler delegate, int capacity, OverflowPolicy policy, ClassLoader contextClassLoader) {
+		this.delegate = delegate;
+		this.policy = policy;
+		this.buffer = new RingBuffer(capacity);
+
+		writer = new Thread(this::run, WRITER_NAME);
+		writer.setDaemon(true);
+		writer.setContextClassLoader(contextClassLoader);
+		writer.start();
+
+		shutdownHook = new Thread(this::shutdown, "BTA provider log flush");
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	/**
+	 * @return the handler to install, wrapped if async logging is enabled
+	 */
+	static LogHandler wrap(LogHandler handler, ClassLoader contextClassLoader) {
+		if (System.getProperty(PROPERTY) == null) return handler;
+
+		return new AsyncLogHandler(handler, Integer.getInteger(CAPACITY_PROPERTY, 8192), OverflowPolicy.parse(System.getProperty(OVERFLOW_PROPERTY)), contextClassLoader);
+	}
+
+	@Override
+	public void log(long time, LogLevel level, LogCategory category, String msg, Throwable exc, boolean fromReplay, boolean wasSuppressed) {
+		if (closed) {
+			delegate.log(time, level, category, msg, exc, fromReplay, wasSuppressed);
+			return;
+		}
+
+		Entry entry = new Entry(Thread.currentThread().getName(), time, level, category, msg, exc, fromReplay, wasSuppressed);
+
+		while (!buffer.offer(entry)) {
+			if (policy == OverflowPolicy.DROP_OLDEST) {
+				if (buffer.poll() != null) dropped.incrementAndGet();
+			} else if (policy == OverflowPolicy.DROP_DEBUG && (level == LogLevel.DEBUG || level == LogLevel.TRACE)) {
+				dropped.incrementAndGet();
+				return;
+			} else {
+				wakeWriter();
+				LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+			}
+		}
+
+		if (closed) {
+			// closed while queueing, the writer may already be gone
+			drain();
+		} else if (writerParked) {
+			wakeWriter();
+		}
+	}
+
+	@Override
+	public boolean shouldLog(LogLevel level, LogCategory category) {
+		return delegate.shouldLog(level, category);
+	}
+
+	long getDropped() {
+		return dropped.get();
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(writer);
+
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		flush();
+
+		try {
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		} catch (IllegalStateException ignored) {
+			// already shutting down
+		}
+
+		delegate.close();
+	}
+
+	private void run() {
+		while (!closed) {
+			if (!drain()) {
+				if (!writer.getName().equals(WRITER_NAME)) writer.setName(WRITER_NAME);
+				writerParked = true;
+
+				// re-check after publishing the flag so a concurrent offer can't be missed
+				if (buffer.isEmpty() && !closed) LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+
+				writerParked = false;
+			}
+		}
+	}
+
+	/**
+	 * Writes all queued messages on the calling thread.
+	 */
+	private void flush() {
+		drain();
+	}
+
+	/**
+	 * Runs as a shutdown hook, concurrently with the others. Messages they log after this go straight to the delegate
+	 * as the daemon writer may not get to write them.
+	 */
+	private void shutdown() {
+		closed = true;
+		drain();
+	}
+
+	/**
+	 * Synchronized so a flush from another thread can't interleave its output with the writer's.
+	 */
+	private synchronized boolean drain() {
+		Thread current = Thread.currentThread();
+		String name = current.getName();
+		boolean any = false;
+		Entry entry;
+
+		try {
+			while ((entry = buffer.poll()) != null) {
+				any = true;
+				// the delegate takes the thread name from the current thread, renaming is a system call so only do it
+				// when the name changes
+				if (!entry.thread.equals(current.getName())) current.setName(entry.thread);
+
+				try {
+					delegate.log(entry.time, entry.level, entry.category, entry.msg, entry.exc, entry.fromReplay, entry.wasSuppressed);
+				} catch (Throwable t) {
+					t.printStackTrace();
+				}
+			}
+		} finally {
+			// the writer keeps the name across batches until it goes idle
+			if (current != writer && !name.equals(current.getName())) current.setName(name);
+		}
+
+		long lost = dropped.getAndSet(0);
+
+		if (lost > 0) {
+			delegate.log(System.currentTimeMillis(), LogLevel.WARN, LogCategory.LOG, String.format(Locale.ROOT, "Dropped %d log messages, the async log buffer was full", lost), null, false, false);
+		}
+
+		return any;
+	}
+
+	private void wakeWriter() {
+		writerParked = false;
+		LockSupport.unpark(writer);
+	}
+
+	private static final class Entry {
+		final String thread;
+		final long time;
+		final LogLevel level;
+		final LogCategory category;
+		final String msg;
+		final Throwable exc;
+		final boolean fromReplay;
+		final boolean wasSuppressed;
+
+		Entry(String thread, long time, LogLevel level, LogCategory category, String msg, Throwable exc, boolean fromReplay, boolean wasSuppressed) {
+			this.thread = thread;
+			this.time = time;
+			this.level = level;
+			this.category = category;
+			this.msg = msg;
+			this.exc = exc;
+			this.fromReplay = fromReplay;
+			this.wasSuppressed = wasSuppressed;
+		}
+	}
+
+	/**
+	 * Bounded multi-producer multi-consumer queue after Dmitry Vyukov's design: every slot carries a sequence number
+	 * telling producers and consumers whose turn it is, so offer and poll each need a single CAS.
+	 */
+	static final class RingBuffer {
+		private final int mask;
+		private final AtomicLongArray sequences;
+		private final AtomicReferenceArray<Entry> entries;
+		private final AtomicLong head = new AtomicLong();
+		private final AtomicLong tail = new AtomicLong();
+
+		RingBuffer(int capacity) {
+			// larger powers of two overflow an int
+			int size = Integer.highestOneBit(Math.max(Math.min(capacity, 1 << 30) - 1, 1)) << 1;
+			mask = size - 1;
+			sequences = new AtomicLongArray(size);
+			entries = new AtomicReferenceArray<>(size);
+
+			for (int i = 0; i < size; i++) {
+				sequences.set(i, i);
+			}
+		}
+
+		boolean offer(Entry entry) {
+			while (true) {
+				long pos = tail.get();
+				int index = (int) pos & mask;
+				long diff = sequences.get(index) - pos;
+
+				if (diff == 0) {
+					if (tail.compareAndSet(pos, pos + 1)) {
+						entries.lazySet(index, entry);
+						sequences.set(index, pos + 1);
+						return true;
+					}
+				} else if (diff < 0) {
+					return false;
+				}
+			}
+		}
+
+		Entry poll() {
+			while (true) {
+				long pos = head.get();
+				int index = (int) pos & mask;
+				long diff = sequences.get(index) - (pos + 1);
+
+				if (diff == 0) {
+					if (head.compareAndSet(pos, pos + 1)) {
+						Entry ret = entries.get(index);
+						entries.lazySet(index, null);
+						sequences.set(index, pos + mask + 1);
+						return ret;
+					}
+				} else if (diff < 0) {
+					return null;
+				}
+			}
+		}
+
+		boolean isEmpty() {
+			return head.get() >= tail.get();
+		}
+	}
+}
@@ -0,0 +1,325 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import net.fabricmc.loader.impl.game.patch.GameTransformer;
+import net.fabricmc.loader.impl.launch.FabricLauncher;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+/**
+ * {@link GameTransformer} applying the provider's {@link HookSpec}s with {@link EntrypointPatcher}, without going
+ * through {@link net.fabricmc.loader.impl.game.patch.GamePatch} class trees.
+ *
+ * <p>The patched classes are kept on disk, keyed by the provider version, the hooks and the path, size and mtime of
+ * the game jars. The content of the game jars is only hashed when those change, so a jar that was touched but not
+ * modified still hits. A hit skips reading and patching the game classes entirely.
+ */
+final class CachingGameTransformer extends GameTransformer {
+	private static final int FORMAT = 3;
+
+	private final Supplier<Path> gameDir;
+	private final List<HookSpec> hooks;
+	private Map<String, byte[]> patchedClasses;
+	private final List<Consumer<String>> classLoadListeners = new CopyOnWriteArrayList<>();
+	private JarPool jarPool = JarPool.NONE;
+
+	CachingGameTransformer(Supplier<Path> gameDir, HookSpec... hooks) {
+		this.gameDir = gameDir;
+		this.hooks = Arrays.asList(hooks);
+	}
+
+	@Override
+	public void locateEntrypoints(FabricLauncher launcher, List<Path> gameJars) {
+		if (patchedClasses != null) return;
+
+		long start = System.nanoTime();
+		String entrypoint = launcher.getEntrypoint();
+
+		if (!ProviderCache.isEnabled()) {
+			patchedClasses = patchGameJars(entrypoint, gameJars);
+			return;
+		}
+
+		Path cacheFile = ProviderCache.resolve(gameDir.get(), "entrypoints").resolve(entrypoint + ".bin");
+		String statKey;
+
+		try {
+			Fingerprint fingerprint = keyBase(entrypoint);
+			for (Path jar : gameJars) fingerprint.addStat(jar);
+			statKey = fingerprint.finish();
+		} catch (IOException e) {
+			Log.warn(LogCategory.GAME_PATCH, "Failed to stat game jars, entrypoint cache disabled", e);
+			patchedClasses = patchGameJars(entrypoint, gameJars);
+			return;
+		}
+
+		CacheEntry cached = read(cacheFile);
+		String contentKey = null;
+
+		if (cached != null && !cached.statKey.equals(statKey)) {
+			contentKey = contentKey(entrypoint, gameJars);
+
+			if (contentKey != null && contentKey.equals(cached.contentKey)) {
+				Log.debug(LogCategory.GAME_PATCH, "Game jars changed on disk but not in content, refreshing entrypoint cache %s", cacheFile);
+				write(cacheFile, new CacheEntry(statKey, contentKey, cached.classes));
+			} else {
+				cached = null;
+			}
+		}
+
+		if (cached != null) {
+			patchedClasses = cached.classes;
+			warnMissingOwners(cached.classes.keySet(), "was not patched when the entrypoint cache was filled");
+			Log.info(LogCategory.GAME_PATCH, "Entrypoint cache hit for %s (%.1f ms)", entrypoint, (System.nanoTime() - start) / 1e6);
+			return;
+		}
+
+		patchedClasses = patchGameJars(entrypoint, gameJars);
+
+		if (!patchedClasses.isEmpty()) {
+			if (contentKey == null) contentKey = contentKey(entrypoint, gameJars);
+			if (contentKey != null) write(cacheFile, new CacheEntry(statKey, contentKey, patchedClasses));
+		}
+
+		Log.info(LogCategory.GAME_PATCH, "Entrypoint cache miss for %s, patched in %.1f ms", entrypoint, (System.nanoTime() - start) / 1e6);
+	}
+
+	void setJarPool(JarPool jarPool) {
+		this.jarPool = jarPool;
+	}
+
+	/**
+	 * Drops the jar pool once the entrypoint class is defined. The patched classes stay: hooks
+	 * may target classes Knot hasn't defined yet, and there are only a handful of them. Class load listeners stay
+	 * registered.
+	 */
+	void release() {
+		jarPool = JarPool.NONE;
+	}
+
+	/**
+	 * @return estimated size of the patched classes
+	 */
+	long estimateBytes() {
+		Map<String, byte[]> classes = patchedClasses;
+		if (classes == null) return 0;
+
+		long ret = 0;
+
+		for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+			ret += 80 + 2L * entry.getKey().length() + entry.getValue().length;
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Knot asks the transformer for every class it defines, which makes this a cheap way to observe game class loading.
+	 *
+	 * @param listener called with the binary name of each class, possibly from several threads
+	 */
+	void addClassLoadListener(Consumer<String> listener) {
+		classLoadListeners.add(listener);
+	}
+
+	void removeClassLoadListener(Consumer<String> listener) {
+		classLoadListeners.remove(listener);
+	}
+
+	@Override
+	public byte[] transform(String className) {
+		if (!classLoadListeners.isEmpty()) {
+			for (Consumer<String> listener : classLoadListeners) {
+				listener.accept(className);
+			}
+		}
+
+		return patchedClasses != null ? patchedClasses.get(className) : null;
+	}
+
+	/**
+	 * Applies the hooks for one class, exposed for benchmarking.
+	 *
+	 * @param owner internal name of the class
+	 */
+	byte[] patch(String owner, byte[] classBytes) {
+		List<HookSpec> classHooks = new ArrayList<>();
+
+		for (HookSpec hook : hooks) {
+			if (hook.owner.equals(owner)) classHooks.add(hook);
+		}
+
+		return classHooks.isEmpty() ? null : EntrypointPatcher.patch(classBytes, classHooks);
+	}
+
+	private Map<String, byte[]> patchGameJars(String entrypoint, List<Path> gameJars) {
+		Map<String, byte[]> ret = new HashMap<>();
+
+		if (!entrypoint.startsWith("net.minecraft.")) {
+			return ret;
+		}
+
+		Map<String, byte[]> sources;
+
+		try {
+			sources = readClasses(gameJars);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read game classes", e);
+		}
+
+		if (!sources.containsKey(entrypoint.replace('.', '/'))) {
+			throw new RuntimeException("Could not load main class " + entrypoint + "!");
+		}
+
+		Set<String> found = new HashSet<>();
+		for (String owner : sources.keySet()) found.add(owner.replace('/', '.'));
+		warnMissingOwners(found, "is not in the game jars");
+
+		for (Map.Entry<String, byte[]> source : sources.entrySet()) {
+			byte[] patched = patch(source.getKey(), source.getValue());
+			if (patched != null) ret.put(source.getKey().replace('/', '.'), patched);
+		}
+
+		Log.debug(LogCategory.GAME_PATCH, "Patched %d class%s", ret.size(), ret.size() != 1 ? "es" : "");
+
+		return ret;
+	}
+
+	/**
+	 * @param classes binary names of the hooked classes that were found
+	 */
+	private void warnMissingOwners(Set<String> classes, String reason) {
+		Set<String> warned = new HashSet<>();
+
+		for (HookSpec hook : hooks) {
+			String owner = hook.owner.replace('/', '.');
+
+			if (!classes.contains(owner) && warned.add(owner)) {
+				Log.warn(LogCategory.GAME_PATCH, "Could not apply hook %s, class %s %s", hook, owner, reason);
+			}
+		}
+	}
+
+	/**
+	 * Reads the hooked classes from the first game jar containing them, looked up in the jars' central directories.
+	 */
+	private Map<String, byte[]> readClasses(List<Path> gameJars) throws IOException {
+		Map<String, byte[]> ret = new LinkedHashMap<>();
+
+		for (HookSpec hook : hooks) {
+			if (ret.containsKey(hook.owner)) continue;
+
+			for (Path jar : gameJars) {
+				byte[] bytes = jarPool.readEntry(jar, hook.owner + ".class");
+
+				if (bytes != null) {
+					ret.put(hook.owner, bytes);
+					break;
+				}
+			}
+		}
+
+		return ret;
+	}
+
+	private Fingerprint keyBase(String entrypoint) {
+		Fingerprint ret = new Fingerprint().add(ProviderCache.providerVersion()).add(entrypoint);
+		for (HookSpec hook : hooks) ret.add(hook.toString());
+
+		return ret;
+	}
+
+	/**
+	 * @return the cache key hashing the content of the game jars, or <code>null</code> if they can't be read
+	 */
+	private String contentKey(String entrypoint, List<Path> gameJars) {
+		try {
+			Fingerprint fingerprint = keyBase(entrypoint);
+			for (Path jar : gameJars) jarPool.addContent(fingerprint, jar);
+
+			return fingerprint.finish();
+		} catch (IOException e) {
+			Log.warn(LogCategory.GAME_PATCH, "Failed to hash game jars, entrypoint cache disabled", e);
+			return null;
+		}
+	}
+
+	private static CacheEntry read(Path file) {
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+			if (in.readInt() != FORMAT) return null;
+
+			String statKey = in.readUTF();
+			String contentKey = in.readUTF();
+			Map<String, byte[]> classes = new HashMap<>();
+
+			for (int i = in.readInt(); i > 0; i--) {
+				String name = in.readUTF();
+				byte[] data = new byte[in.readInt()];
+				in.readFully(data);
+				classes.put(name, data);
+			}
+
+			return new CacheEntry(statKey, contentKey, classes);
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			Log.debug(LogCategory.GAME_PATCH, "Discarding unreadable entrypoint cache %s: %s", file, e);
+			return null;
+		}
+	}
+
+	private static void write(Path file, CacheEntry entry) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(FORMAT);
+			out.writeUTF(entry.statKey);
+			out.writeUTF(entry.contentKey);
+			out.writeInt(entry.classes.size());
+
+			for (Map.Entry<String, byte[]> e : entry.classes.entrySet()) {
+				out.writeUTF(e.getKey());
+				out.writeInt(e.getValue().length);
+				out.write(e.getValue());
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+
+		try {
+			ProviderCache.write(file, bytes.toByteArray());
+		} catch (IOException e) {
+			Log.warn(LogCategory.GAME_PATCH, "Failed to write entrypoint cache " + file, e);
+		}
+	}
+
+	private static final class CacheEntry {
+		final String statKey;
+		final String contentKey;
+		final Map<String, byte[]> classes;
+
+		CacheEntry(String statKey, String contentKey, Map<String, byte[]> classes) {
+			this.statKey = statKey;
+			this.contentKey = contentKey;
+			this.classes = classes;
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.ZipException;
+
+/**
+ * Minimal zip reader that only loads the end of central directory record and the central directory itself, which is
+ * all that is needed to answer whether a jar contains some entries.
+ */
+final class CentralDirectory {
+	private static final int EOCD_SIG = 0x06054b50;
+	private static final int EOCD_SIZE = 22;
+	private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+	private static final int ZIP64_EOCD_SIG = 0x06064b50;
+	private static final int CEN_SIG = 0x02014b50;
+	private static final int CEN_SIZE = 46;
+
+	private final ByteBuffer cen;
+	private final int entries;
+
+	private CentralDirectory(ByteBuffer cen, int entries) {
+		this.cen = cen;
+		this.entries = entries;
+	}
+
+	static CentralDirectory read(Path jar) throws IOException {
+		try (FileChannel channel = FileChannel.open(jar, StandardOpenOption.READ)) {
+			return read(channel);
+		}
+	}
+
+	static CentralDirectory read(FileChannel channel) throws IOException {
+		return read(channel.size(), (position, length) -> readFully(channel, position, length));
+	}
+
+	/**
+	 * Parses the central directory of a whole-file mapping. The directory is copied out of the mapping, so it stays
+	 * usable once the mapping is released.
+	 */
+	static CentralDirectory read(ByteBuffer file) throws IOException {
+		return read(file.limit(), (position, length) -> {
+			if (position < 0 || position + length > file.limit()) throw new EOFException();
+
+			ByteBuffer ret = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+			ByteBuffer src = file.duplicate();
+			src.position((int) position);
+			src.limit((int) position + length);
+			ret.put(src);
+			ret.flip();
+
+			return ret;
+		});
+	}
+
+	private interface Source {
+		ByteBuffer read(long position, int length) throws IOException;
+	}
+
+	private static CentralDirectory read(long size, Source source) throws IOException {
+		if (size < EOCD_SIZE) throw new ZipException("Not a zip file");
+
+		// the EOCD is followed by a comment of at most 0xffff bytes
+		int tailSize = (int) Math.min(size, EOCD_SIZE + 0xffff);
+		ByteBuffer tail = source.read(size - tailSize, tailSize);
+		int eocd = -1;
+
+		for (int i = tailSize - EOCD_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == EOCD_SIG && i + EOCD_SIZE + (tail.getShort(i + 20) & 0xffff) <= tailSize) {
+				eocd = i;
+				break;
+			}
+		}
+
+		if (eocd < 0) throw new ZipException("No end of central directory record");
+
+		long entries = tail.getShort(eocd + 10) & 0xffff;
+		long cenSize = tail.getInt(eocd + 12) & 0xffffffffL;
+		long cenOffset = tail.getInt(eocd + 16) & 0xffffffffL;
+
+		if (eocd >= 20 && tail.getInt(eocd - 20) == ZIP64_LOCATOR_SIG) {
+			ByteBuffer zip64 = source.read(tail.getLong(eocd - 12), 56);
+			if (zip64.getInt(0) != ZIP64_EOCD_SIG) throw new ZipException("Invalid zip64 end of central directory record");
+
+			entries = zip64.getLong(32);
+			cenSize = zip64.getLong(40);
+			cenOffset = zip64.getLong(48);
+		}
+
+		if (cenSize > Integer.MAX_VALUE || cenOffset + cenSize > size || entries > cenSize / CEN_SIZE) {
+			throw new ZipException("Invalid central directory");
+		}
+
+		return new CentralDirectory(source.read(cenOffset, (int) cenSize), (int) entries);
+	}
+
+	/**
+	 * Checks all given names in a single pass over the central directory. Only entries whose name has the length of
+	 * one of the candidates are compared, and no entry names are decoded.
+	 *
+	 * @param names up to 32 entry names
+	 * @return a bit mask with bit <code>i</code> set if <code>names[i]</code> is present
+	 */
+	int match(String... names) throws ZipException {
+		if (names.length > 32) throw new IllegalArgumentException("too many names");
+
+		byte[][] encoded = new byte[names.length][];
+		int maxLength = 0;
+
+		for (int i = 0; i < names.length; i++) {
+			encoded[i] = names[i].getBytes(StandardCharsets.UTF_8);
+			maxLength = Math.max(maxLength, encoded[i].length);
+		}
+
+		int mask = 0;
+		int all = names.length == 32 ? -1 : (1 << names.length) - 1;
+		int pos = 0;
+
+		for (int entry = 0; entry < entries && mask != all; entry++) {
+			if (pos + CEN_SIZE > cen.limit() || cen.getInt(pos) != CEN_SIG) throw new ZipException("Invalid central directory entry");
+
+			int nameLength = cen.getShort(pos + 28) & 0xffff;
+			int next = pos + CEN_SIZE + nameLength + (cen.getShort(pos + 30) & 0xffff) + (cen.getShort(pos + 32) & 0xffff);
+			if (next > cen.limit()) throw new ZipException("Invalid central directory entry");
+
+			if (nameLength <= maxLength) {
+				for (int i = 0; i < encoded.length; i++) {
+					if ((mask & 1 << i) == 0 && nameEquals(pos + CEN_SIZE, nameLength, encoded[i])) {
+						mask |= 1 << i;
+					}
+				}
+			}
+
+			pos = next;
+		}
+
+		return mask;
+	}
+
+	interface EntryVisitor {
+		void visit(String name, int method, long compressedSize, long localHeaderOffset);
+	}
+
+	/**
+	 * Visits every entry, in central directory order. Sizes and offsets are only valid for entries below 4 GiB, which
+	 * is all the provider reads through this.
+	 */
+	void forEachEntry(EntryVisitor visitor) throws ZipException {
+		byte[] buffer = new byte[256];
+		int pos = 0;
+
+		for (int entry = 0; entry < entries; entry++) {
+			if (pos + CEN_SIZE > cen.limit() || cen.getInt(pos) != CEN_SIG) throw new ZipException("Invalid central directory entry");
+
+			int nameLength = cen.getShort(pos + 28) & 0xffff;
+			int next = pos + CEN_SIZE + nameLength + (cen.getShort(pos + 30) & 0xffff) + (cen.getShort(pos + 32) & 0xffff);
+			if (next > cen.limit()) throw new ZipException("Invalid central directory entry");
+
+			if (nameLength > buffer.length) buffer = new byte[nameLength];
+
+			for (int i = 0; i < nameLength; i++) {
+				buffer[i] = cen.get(pos + CEN_SIZE + i);
+			}
+
+			visitor.visit(new String(buffer, 0, nameLength, StandardCharsets.UTF_8),
+					cen.getShort(pos + 10) & 0xffff,
+					cen.getInt(pos + 20) & 0xffffffffL,
+					cen.getInt(pos + 42) & 0xffffffffL);
+			pos = next;
+		}
+	}
+
+	/**
+	 * @return rough heap size of the parsed directory
+	 */
+	long estimateBytes() {
+		return 48 + cen.capacity();
+	}
+
+	private boolean nameEquals(int offset, int length, byte[] name) {
+		if (length != name.length) return false;
+
+		for (int i = 0; i < length; i++) {
+			if (cen.get(offset + i) != name[i]) return false;
+		}
+
+		return true;
+	}
+
+	private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException();
+		}
+
+		buffer.flip();
+
+		return buffer;
+	}
+}
@@ -0,0 +1,248 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import net.fabricmc.loader.api.ModContainer;
+import net.fabricmc.loader.api.metadata.ModOrigin;
+import net.fabricmc.loader.impl.FabricLoaderImpl;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+/**
+ * Records which classes Knot defines in the first seconds after launch and prefetches them on later launches, enabled
+ * with <code>-Dfabric.btaProvider.classPreload</code>.
+ *
+ * <p>Without a matching profile, the class names are recorded through the transformer for
+ * <code>fabric.btaProvider.classPreload.recordSeconds</code> (default 30) and written to
+ * <code>.fabric/bta-provider/classload.bin</code>. The profile is keyed by path, size and modification time of the game
+ * jars and every mod jar, so any change to them records a new one. With a matching profile, background threads
+ * (<code>fabric.btaProvider.classPreload.threads</code>, default one less than the core count) walk it in order ahead
+ * of the main thread. By default they only read each class file through the target class loader and check it, which
+ * warms the jar and page caches. With the property set to <code>define</code> they load the classes, running the
+ * transformers and mixins off the main thread. That is faster, but requires every transformer to be thread safe.
+ */
+final class ClassLoadProfile {
+	static final String PROPERTY = "fabric.btaProvider.classPreload";
+	static final String RECORD_SECONDS_PROPERTY = "fabric.btaProvider.classPreload.recordSeconds";
+	static final String THREADS_PROPERTY = "fabric.btaProvider.classPreload.threads";
+	private static final String FILE = "classload.bin";
+	private static final int FORMAT = 1;
+	private static final int CLASS_MAGIC = 0xCAFEBABE;
+
+	private ClassLoadProfile() { }
+
+	static boolean isEnabled() {
+		return System.getProperty(PROPERTY) != null && ProviderCache.isEnabled();
+	}
+
+	/**
+	 * Starts prefetching the recorded classes, or recording them if there is no profile for the current jars.
+	 *
+	 * @param gameJars the game jars, mod jars are taken from the loader
+	 */
+	static void start(Path gameDir, Collection<Path> gameJars, CachingGameTransformer transformer, ClassLoader loader) {
+		Path file = ProviderCache.resolve(gameDir, FILE);
+		String key;
+
+		try {
+			key = computeKey(gameJars);
+		} catch (IOException e) {
+			Log.warn(LogCategory.GAME_PROVIDER, "Failed to compute the class load profile key", e);
+			return;
+		}
+
+		List<String> classes = read(file, key);
+
+		if (classes != null) {
+			preload(classes, loader, "define".equals(System.getProperty(PROPERTY)));
+		} else {
+			record(file, key, transformer);
+		}
+	}
+
+	private static String computeKey(Collection<Path> gameJars) throws IOException {
+		Set<Path> jars = new TreeSet<>();
+
+		for (Path jar : gameJars) {
+			jars.add(jar.toAbsolutePath().normalize());
+		}
+
+		for (ModContainer mod : FabricLoaderImpl.INSTANCE.getAllMods()) {
+			ModOrigin origin = mod.getOrigin();
+			if (origin.getKind() != ModOrigin.Kind.PATH) continue;
+
+			for (Path path : origin.getPaths()) {
+				jars.add(path.toAbsolutePath().normalize());
+			}
+		}
+
+		Fingerprint fingerprint = new Fingerprint().add(ProviderCache.providerVersion()).add(Integer.toString(FORMAT));
+
+		for (Path jar : jars) {
+			fingerprint.add(jar.toString());
+			if (Files.isRegularFile(jar)) fingerprint.add(Files.size(jar) + ":" + Files.getLastModifiedTime(jar).toMillis());
+		}
+
+		return fingerprint.finish();
+	}
+
+	private static List<String> read(Path file, String key) {
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+			if (in.readInt() != FORMAT || !in.readUTF().equals(key)) {
+				Log.debug(LogCategory.GAME_PROVIDER, "Class load profile is stale, recording a new one");
+				return null;
+			}
+
+			int count = in.readInt();
+			List<String> classes = new ArrayList<>(count);
+
+			for (int i = 0; i < count; i++) {
+				classes.add(in.readUTF());
+			}
+
+			return classes;
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			Log.warn(LogCategory.GAME_PROVIDER, "Failed to read class load profile " + file, e);
+			return null;
+		}
+	}
+
+	private static void record(Path file, String key, CachingGameTransformer transformer) {
+		Set<String> seen = ConcurrentHashMap.newKeySet();
+		Queue<String> classes = new ConcurrentLinkedQueue<>();
+		Consumer<String> listener = name -> {
+			if (seen.add(name)) classes.add(name);
+		};
+		long delay = Long.getLong(RECORD_SECONDS_PROPERTY, 30) * 1000;
+
+		transformer.addClassLoadListener(listener);
+
+		Thread thread = new Thread(() -> {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				return;
+			} finally {
+				transformer.removeClassLoadListener(listener);
+			}
+
+			write(file, key, new ArrayList<>(classes));
+		}, "BTA provider class load recorder");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static void write(Path file, String key, List<String> classes) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(FORMAT);
+			out.writeUTF(key);
+			out.writeInt(classes.size());
+
+			for (String name : classes) {
+				out.writeUTF(name);
+			}
+
+			out.flush();
+			ProviderCache.write(file, bytes.toByteArray());
+			Log.info(LogCategory.GAME_PROVIDER, "Recorded class load profile with %d classes", classes.size());
+		} catch (IOException e) {
+			Log.warn(LogCategory.GAME_PROVIDER, "Failed to write class load profile " + file, e);
+		}
+	}
+
+	private static void preload(List<String> classes, ClassLoader loader, boolean define) {
+		int threads = Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors() - 1);
+		if (threads < 1) threads = 1;
+
+		// a shared cursor keeps all threads close to the front, which is where the main thread is
+		AtomicInteger next = new AtomicInteger();
+		AtomicInteger missing = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(threads);
+		long start = System.nanoTime();
+
+		for (int i = 0; i < threads; i++) {
+			Thread thread = new Thread(() -> {
+				byte[] buffer = new byte[8192];
+
+				try {
+					int index;
+
+					while ((index = next.getAndIncrement()) < classes.size()) {
+						if (!prefetch(classes.get(index), loader, define, buffer)) missing.incrementAndGet();
+					}
+				} finally {
+					done.countDown();
+				}
+			}, "BTA provider class preloader " + i);
+			thread.setContextClassLoader(loader);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		Thread reporter = new Thread(() -> {
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			Log.debug(LogCategory.GAME_PROVIDER, "%s %d classes in %d ms, %d missing", define ? "Preloaded" : "Prefetched",
+					classes.size(), (System.nanoTime() - start) / 1000000, missing.get());
+		}, "BTA provider class preload report");
+		reporter.setDaemon(true);
+		reporter.start();
+	}
+
+	private static boolean prefetch(String name, ClassLoader loader, boolean define, byte[] buffer) {
+		if (define) {
+			try {
+				Class.forName(name, false, loader);
+				return true;
+			} catch (Throwable t) {
+				return false;
+			}
+		}
+
+		try (InputStream in = loader.getResourceAsStream(name.replace('.', '/') + ".class")) {
+			if (in == null) return false;
+
+			int magic = 0;
+			int total = 0;
+			int read;
+
+			while ((read = in.read(buffer)) >= 0) {
+				for (int i = 0; i < read && total + i < 4; i++) {
+					magic = magic << 8 | buffer[i] & 0xff;
+				}
+
+				total += read;
+			}
+
+			return total >= 4 && magic == CLASS_MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+}
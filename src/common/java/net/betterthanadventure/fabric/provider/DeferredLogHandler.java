@@ -0,0 +1,150 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import net.fabricmc.loader.impl.util.log.LogCategory;
+import net.fabricmc.loader.impl.util.log.LogHandler;
+import net.fabricmc.loader.impl.util.log.LogLevel;
+
+/**
+ * {@link LogHandler} that creates the real handler on a background thread, enabled with
+ * <code>-Dfabric.btaProvider.backgroundLogInit</code>. This takes loading the logging libraries and parsing their
+ * configuration off the launch thread, overlapping it with mod discovery.
+ *
+ * <p>Messages logged in the meantime are buffered and replayed in order once the real handler is ready; from then on
+ * messages are passed straight through.
+ */
+final class DeferredLogHandler implements LogHandler {
+	static final String PROPERTY = "fabric.btaProvider.backgroundLogInit";
+
+	private final List<Entry> pending = new ArrayList<>();
+	private final Thread thread;
+	private volatile LogHandler target;
+	private volatile Throwable failure;
+
+	private DeferredLogHandler(Callable<LogHandler> factory, ClassLoader contextClassLoader) {
+		thread = new Thread(() -> {
+			LogHandler handler;
+
+			try {
+				handler = factory.call();
+				// creates the first logger, which makes log4j find and parse its configuration here
+				handler.shouldLog(LogLevel.INFO, LogCategory.GAME_PROVIDER);
+			} catch (Throwable t) {
+				failure = t;
+				handler = new StderrLogHandler();
+			}
+
+			ready(handler);
+		}, "BTA provider log init");
+		thread.setDaemon(true);
+		thread.setContextClassLoader(contextClassLoader);
+	}
+
+	static DeferredLogHandler start(Callable<LogHandler> factory, ClassLoader contextClassLoader) {
+		DeferredLogHandler ret = new DeferredLogHandler(factory, contextClassLoader);
+		ret.thread.start();
+
+		return ret;
+	}
+
+	/**
+	 * Waits for the real handler.
+	 *
+	 * @throws RuntimeException if it could not be created; buffered messages have been written to stderr then
+	 */
+	void await() {
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+
+		if (failure != null) throw new RuntimeException(failure);
+	}
+
+	private void ready(LogHandler handler) {
+		synchronized (pending) {
+			for (Entry entry : pending) {
+				if (handler.shouldLog(entry.level, entry.category)) {
+					handler.log(entry.time, entry.level, entry.category, entry.msg, entry.exc, entry.fromReplay, entry.wasSuppressed);
+				}
+			}
+
+			pending.clear();
+			target = handler;
+		}
+	}
+
+	@Override
+	public void log(long time, LogLevel level, LogCategory category, String msg, Throwable exc, boolean fromReplay, boolean wasSuppressed) {
+		LogHandler handler = target;
+
+		if (handler == null) {
+			synchronized (pending) {
+				handler = target;
+
+				if (handler == null) {
+					pending.add(new Entry(time, level, category, msg, exc, fromReplay, wasSuppressed));
+					return;
+				}
+			}
+		}
+
+		handler.log(time, level, category, msg, exc, fromReplay, wasSuppressed);
+	}
+
+	@Override
+	public boolean shouldLog(LogLevel level, LogCategory category) {
+		LogHandler handler = target;
+
+		// buffer everything, the real handler filters on replay
+		return handler == null || handler.shouldLog(level, category);
+	}
+
+	@Override
+	public void close() {
+		LogHandler handler = target;
+		if (handler != null) handler.close();
+	}
+
+	private static final class Entry {
+		final long time;
+		final LogLevel level;
+		final LogCategory category;
+		final String msg;
+		final Throwable exc;
+		final boolean fromReplay;
+		final boolean wasSuppressed;
+
+		Entry(long time, LogLevel level, LogCategory category, String msg, Throwable exc, boolean fromReplay, boolean wasSuppressed) {
+			this.time = time;
+			this.level = level;
+			this.category = category;
+			this.msg = msg;
+			this.exc = exc;
+			this.fromReplay = fromReplay;
+			this.wasSuppressed = wasSuppressed;
+		}
+	}
+
+	private static final class StderrLogHandler implements LogHandler {
+		@Override
+		public void log(long time, LogLevel level, LogCategory category, String msg, Throwable exc, boolean fromReplay, boolean wasSuppressed) {
+			System.err.printf("[%s] %s%n", level, msg);
+			if (exc != null) exc.printStackTrace();
+		}
+
+		@Override
+		public boolean shouldLog(LogLevel level, LogCategory category) {
+			return level != LogLevel.DEBUG && level != LogLevel.TRACE;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Applies {@link HookSpec}s to a class in a single streaming ASM pass. Methods without hooks are copied through as
+ * raw bytes by the {@link ClassWriter}, only the targeted methods are visited instruction by instruction.
+ *
+ * <p>Injections contain no branches and keep the stack balanced, so existing stack map frames stay valid and only
+ * the max stack/locals are recomputed. {@link HookSpec.Position#THROW} hooks share one handler appended after the
+ * method's code, which needs no locals and so gets a frame of its own.
+ */
+final class EntrypointPatcher {
+	private EntrypointPatcher() {
+	}
+
+	/**
+	 * @param hooks hooks whose owner is the class being patched
+	 * @return the patched class, or <code>null</code> if no hook applied
+	 */
+	static byte[] patch(byte[] classBytes, Collection<HookSpec> hooks) {
+		ClassReader reader = new ClassReader(classBytes);
+		ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+		Set<HookSpec> applied = new HashSet<>();
+
+		reader.accept(new ClassVisitor(Opcodes.ASM9, writer) {
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+				MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+				List<HookSpec> targeting = null;
+
+				for (HookSpec hook : hooks) {
+					if (hook.targets(name, descriptor)) {
+						if (targeting == null) targeting = new ArrayList<>();
+						targeting.add(hook);
+					}
+				}
+
+				if (targeting == null) return mv;
+
+				return new HookMethodVisitor(mv, reader.getClassName(), reader.readUnsignedShort(6) >= Opcodes.V1_6, targeting, applied);
+			}
+		}, 0);
+
+		for (HookSpec hook : hooks) {
+			if (!applied.contains(hook)) {
+				Log.warn(LogCategory.GAME_PATCH, "Could not apply hook %s, target not found", hook);
+			}
+		}
+
+		return applied.isEmpty() ? null : writer.toByteArray();
+	}
+
+	private static final class HookMethodVisitor extends MethodVisitor {
+		private final String owner;
+		private final boolean frames;
+		private final List<HookSpec> hooks;
+		private final Set<HookSpec> applied;
+		private Label tryStart;
+
+		HookMethodVisitor(MethodVisitor mv, String owner, boolean frames, List<HookSpec> hooks, Set<HookSpec> applied) {
+			super(Opcodes.ASM9, mv);
+			this.owner = owner;
+			this.frames = frames;
+			this.hooks = hooks;
+			this.applied = applied;
+		}
+
+		@Override
+		public void visitCode() {
+			super.visitCode();
+
+			for (HookSpec hook : hooks) {
+				if (hook.position == HookSpec.Position.HEAD) apply(hook);
+				if (hook.position == HookSpec.Position.THROW && tryStart == null) tryStart = new Label();
+			}
+
+			if (tryStart != null) super.visitLabel(tryStart);
+		}
+
+		@Override
+		public void visitMaxs(int maxStack, int maxLocals) {
+			if (tryStart != null) {
+				Label tryEnd = new Label();
+				Label handler = new Label();
+				super.visitLabel(tryEnd);
+				// visited last so the method's own handlers keep precedence
+				super.visitTryCatchBlock(tryStart, tryEnd, handler, null);
+				super.visitLabel(handler);
+				if (frames) super.visitFrame(Opcodes.F_FULL, 0, null, 1, new Object[] { "java/lang/Throwable" });
+
+				for (HookSpec hook : hooks) {
+					if (hook.position == HookSpec.Position.THROW) apply(hook);
+				}
+
+				super.visitInsn(Opcodes.ATHROW);
+			}
+
+			super.visitMaxs(maxStack, maxLocals);
+		}
+
+		@Override
+		public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+			for (HookSpec hook : hooks) {
+				if (hook.position == HookSpec.Position.BEFORE_CALL && matches(hook, name, descriptor)) apply(hook);
+			}
+
+			super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+
+			for (HookSpec hook : hooks) {
+				if (hook.position == HookSpec.Position.AFTER_CALL && matches(hook, name, descriptor)) apply(hook);
+			}
+		}
+
+		@Override
+		public void visitInsn(int opcode) {
+			if (opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN) {
+				for (HookSpec hook : hooks) {
+					if (hook.position == HookSpec.Position.RETURN) apply(hook);
+				}
+			}
+
+			super.visitInsn(opcode);
+		}
+
+		private boolean matches(HookSpec hook, String name, String descriptor) {
+			// call anchors only fire on their first match
+			return !applied.contains(hook) && hook.anchorName.equals(name) && hook.anchorDesc.equals(descriptor);
+		}
+
+		private void apply(HookSpec hook) {
+			if (applied.add(hook)) {
+				Log.debug(LogCategory.GAME_PATCH, "Applying hook %s to %s::%s", hook.id, owner, hook.name);
+			}
+
+			hook.injection.emit(mv);
+		}
+	}
+}
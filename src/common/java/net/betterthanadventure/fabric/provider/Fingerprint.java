@@ -0,0 +1,84 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 content hashes used to key the provider caches.
+ */
+final class Fingerprint {
+	private final MessageDigest digest;
+	private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+	Fingerprint() {
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	Fingerprint add(String value) {
+		digest.update(value.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		return this;
+	}
+
+	Fingerprint addContent(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buffer.clear();
+
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		}
+
+		return this;
+	}
+
+	/**
+	 * Adds the file's path, size and modification time, a cheap stand-in for its content.
+	 */
+	Fingerprint addStat(Path file) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		return add(file.toAbsolutePath().toString()).add(Long.toString(attributes.size())).add(Long.toString(attributes.lastModifiedTime().toMillis()));
+	}
+
+	/**
+	 * Hashes the remaining bytes of the buffer without moving its position, giving the same result as
+	 * {@link #addContent(Path)} on the file it maps.
+	 */
+	Fingerprint addContent(ByteBuffer content) {
+		digest.update(content.duplicate());
+		return this;
+	}
+
+	String finish() {
+		return toHex(digest.digest());
+	}
+
+	static String of(Path file) throws IOException {
+		return new Fingerprint().addContent(file).finish();
+	}
+
+	private static String toHex(byte[] bytes) {
+		char[] ret = new char[bytes.length * 2];
+
+		for (int i = 0; i < bytes.length; i++) {
+			ret[i * 2] = Character.forDigit((bytes[i] >>> 4) & 0xf, 16);
+			ret[i * 2 + 1] = Character.forDigit(bytes[i] & 0xf, 16);
+		}
+
+		return new String(ret);
+	}
+}
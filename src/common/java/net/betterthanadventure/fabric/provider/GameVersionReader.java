@@ -0,0 +1,220 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Reads the game's <code>VERSION</code> field from the class bytes in the game jar, so the game class is never loaded
+ * or initialized by the provider. Handles both a constant value and a string assigned in <code>&lt;clinit&gt;</code>.
+ * The result is cached per class with the path, size and mtime of the game jars, which are checked before any jar is
+ * opened.
+ */
+final class GameVersionReader {
+	private static final int FORMAT = 2;
+	private static final String FIELD = "VERSION";
+
+	private GameVersionReader() {
+	}
+
+	/**
+	 * @param className binary name of the class declaring <code>VERSION</code>
+	 * @return the version, or <code>null</code> if it isn't a plain string constant
+	 */
+	static String read(Path gameDir, List<Path> gameJars, String className, JarPool jarPool) {
+		// one file per class, so the client and server providers don't overwrite each other's entry
+		Path cacheFile = ProviderCache.resolve(gameDir, "version-" + className + ".bin");
+		String key = ProviderCache.isEnabled() ? cacheKey(gameJars, className) : null;
+
+		if (key != null) {
+			String version = readCache(cacheFile, key);
+			if (version != null) return version;
+		}
+
+		String entryName = className.replace('.', '/') + ".class";
+
+		for (Path jar : gameJars) {
+			try {
+				byte[] classBytes = jarPool.readEntry(jar, entryName);
+				if (classBytes == null) continue;
+
+				String version = readVersion(classBytes);
+
+				if (version != null && key != null) writeCache(cacheFile, key, version);
+
+				return version;
+			} catch (IOException e) {
+				Log.debug(LogCategory.GAME_PROVIDER, "Could not read game version from %s: %s", jar, e);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return the path, size and mtime of every game jar plus the class name, or <code>null</code> if a jar can't be
+	 * read
+	 */
+	private static String cacheKey(List<Path> gameJars, String className) {
+		StringBuilder ret = new StringBuilder();
+
+		try {
+			for (Path jar : gameJars) {
+				BasicFileAttributes attributes = Files.readAttributes(jar, BasicFileAttributes.class);
+				ret.append(jar.toAbsolutePath()).append('|').append(attributes.size()).append('|').append(attributes.lastModifiedTime().toMillis()).append('|');
+			}
+		} catch (IOException e) {
+			Log.debug(LogCategory.GAME_PROVIDER, "Could not stat game jars for the version cache: %s", e);
+			return null;
+		}
+
+		return ret.append(className).toString();
+	}
+
+	static String readVersion(byte[] classBytes) {
+		ClassReader reader = new ClassReader(classBytes);
+		String owner = reader.getClassName();
+		String[] ret = new String[1];
+
+		reader.accept(new ClassVisitor(Opcodes.ASM9) {
+			@Override
+			public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+				if (name.equals(FIELD) && value instanceof String) ret[0] = (String) value;
+				return null;
+			}
+
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+				if (!name.equals("<clinit>") || ret[0] != null) return null;
+
+				return new MethodVisitor(Opcodes.ASM9) {
+					private String lastString;
+
+					@Override
+					public void visitLdcInsn(Object value) {
+						lastString = value instanceof String ? (String) value : null;
+					}
+
+					@Override
+					public void visitFieldInsn(int opcode, String fieldOwner, String name, String descriptor) {
+						if (opcode == Opcodes.PUTSTATIC && fieldOwner.equals(owner) && name.equals(FIELD) && ret[0] == null) {
+							ret[0] = lastString;
+						}
+
+						lastString = null;
+					}
+
+					@Override
+					public void visitInsn(int opcode) {
+						lastString = null;
+					}
+
+					@Override
+					public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+						lastString = null;
+					}
+
+					@Override
+					public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+						lastString = null;
+					}
+
+					@Override
+					public void visitIntInsn(int opcode, int operand) {
+						lastString = null;
+					}
+
+					@Override
+					public void visitVarInsn(int opcode, int varIndex) {
+						lastString = null;
+					}
+
+					@Override
+					public void visitTypeInsn(int opcode, String type) {
+						lastString = null;
+					}
+
+					@Override
+					public void visitJumpInsn(int opcode, Label label) {
+						lastString = null;
+					}
+
+					@Override
+					public void visitLabel(Label label) {
+						// debug info is skipped, so this is a branch target where another path may join
+						lastString = null;
+					}
+
+					@Override
+					public void visitIincInsn(int varIndex, int increment) {
+						lastString = null;
+					}
+
+					@Override
+					public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+						lastString = null;
+					}
+
+					@Override
+					public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+						lastString = null;
+					}
+
+					@Override
+					public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+						lastString = null;
+					}
+				};
+			}
+		}, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+		return ret[0];
+	}
+
+	private static String readCache(Path file, String key) {
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+			if (in.readInt() != FORMAT || !in.readUTF().equals(key)) return null;
+
+			return in.readUTF();
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			Log.debug(LogCategory.GAME_PROVIDER, "Discarding unreadable version cache %s: %s", file, e);
+			return null;
+		}
+	}
+
+	private static void writeCache(Path file, String key, String version) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(FORMAT);
+			out.writeUTF(key);
+			out.writeUTF(version);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+
+		try {
+			ProviderCache.write(file, bytes.toByteArray());
+		} catch (IOException e) {
+			Log.warn(LogCategory.GAME_PROVIDER, "Failed to write version cache " + file, e);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package net.betterthanadventure.fabric.provider;
+
+import org.objectweb.asm.MethodVisitor;
+
+/**
+ * Declares one injection into a game method for {@link EntrypointPatcher}: the target method, where in it to inject,
+ * and the code to emit there.
+ */
+final class HookSpec {
+	enum Position {
+		/** At the head of the method. */
+		HEAD,
+		/** Before the first call matching the anchor. */
+		BEFORE_CALL,
+		/** After the first call matching the anchor. */
+		AFTER_CALL,
+		/** Before every return instruction. */
+		RETURN,
+		/** When the method throws, before the exception is rethrown. */
+		THROW
+	}
+
+	/**
+	 * Emits the injected instructions. They must leave the operand stack as they found it.
+	 */
+	interface Injection {
+		void emit(MethodVisitor mv);
+	}
+
+	final String id;
+	final String owner;
+	final String name;
+	final String desc;
+	final Position position;
+	final String anchorName;
+	final String anchorDesc;
+	final Injection injection;
+
+	private HookSpec(String id, String owner, String name, String desc, Position position, String anchorName, String anchorDesc, Injection injection) {
+		this.id = id;
+		this.owner = owner;
+		this.name = name;
+		this.desc = desc;
+		this.position = position;
+		this.anchorName = anchorName;
+		this.anchorDesc = anchorDesc;
+		this.injection = injection;
+	}
+
+	/**
+	 * @param id identifies the injected code in the entrypoint cache key, change it when the injection changes
+	 * @param owner internal name of the class declaring the target method
+	 */
+	static HookSpec atHead(String id, String owner, String name, String desc, Injection injection) {
+		return new HookSpec(id, owner, name, desc, Position.HEAD, null, null, injection);
+	}
+
+	static HookSpec beforeReturn(String id, String owner, String name, String desc, Injection injection) {
+		return new HookSpec(id, owner, name, desc, Position.RETURN, null, null, injection);
+	}
+
+	/**
+	 * The injection runs in a catch-all handler around the whole method, with the exception on top of the stack.
+	 */
+	static HookSpec onThrow(String id, String owner, String name, String desc, Injection injection) {
+		return new HookSpec(id, owner, name, desc, Position.THROW, null, null, injection);
+	}
+
+	/**
+	 * The anchor call is matched by name and descriptor only, whatever its owner.
+	 */
+	static HookSpec beforeCall(String id, String owner, String name, String desc, String anchorName, String anchorDesc, Injection injection) {
+		return new HookSpec(id, owner, name, desc, Position.BEFORE_CALL, anchorName, anchorDesc, injection);
+	}
+
+	static HookSpec afterCall(String id, String owner, String name, String desc, String anchorName, String anchorDesc, Injection injection) {
+		return new HookSpec(id, owner, name, desc, Position.AFTER_CALL, anchorName, anchorDesc, injection);
+	}
+
+	boolean targets(String name, String desc) {
+		return this.name.equals(name) && this.desc.equals(desc);
+	}
+
+	@Override
+	public String toString() {
+		String target = owner + "::" + name + desc + " " + position;
+		return id + "@" + (anchorName != null ? target + " " + anchorName + anchorDesc : target);
+	}
+}
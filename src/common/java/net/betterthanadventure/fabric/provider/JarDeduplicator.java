@@ -0,0 +1,87 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.fabricmc.loader.impl.util.LoaderUtil;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+/**
+ * Drops jars whose content equals a jar seen before, such as the same library reached through two paths. Only jars of
+ * equal size are hashed, so unique jars cost a single stat. Repeated paths are logged at DEBUG, only content
+ * duplicates are logged at INFO.
+ *
+ * <p>Disabled with <code>-Dfabric.btaProvider.keepDuplicateJars</code>.
+ */
+final class JarDeduplicator {
+	static final String DISABLE_PROPERTY = "fabric.btaProvider.keepDuplicateJars";
+
+	private final boolean enabled = System.getProperty(DISABLE_PROPERTY) == null;
+	private final Set<Path> seenPaths = new HashSet<>();
+	private final Map<Long, List<Path>> seenBySize = new HashMap<>();
+	private final Map<Path, String> hashes = new HashMap<>();
+
+	/**
+	 * @return the paths that are not duplicates of an earlier one, in their original order
+	 */
+	List<Path> filter(Iterable<Path> paths, String kind) {
+		List<Path> ret = new ArrayList<>();
+
+		for (Path path : paths) {
+			if (accept(path, kind)) ret.add(path);
+		}
+
+		return ret;
+	}
+
+	/**
+	 * @return whether the path is not a duplicate of an earlier one; directories and missing files are always accepted
+	 */
+	boolean accept(Path path, String kind) {
+		if (!enabled || !Files.isRegularFile(path)) return true;
+
+		try {
+			Path normalized = LoaderUtil.normalizeExistingPath(path);
+
+			if (!seenPaths.add(normalized)) {
+				// expected for the game jar, which the launcher classpath normally lists as well
+				Log.debug(LogCategory.GAME_PROVIDER, "Ignoring %s jar %s, it is already on the classpath", kind, path);
+				return false;
+			}
+
+			List<Path> sameSize = seenBySize.computeIfAbsent(Files.size(normalized), ignored -> new ArrayList<>());
+
+			for (Path other : sameSize) {
+				if (hash(other).equals(hash(normalized))) {
+					Log.info(LogCategory.GAME_PROVIDER, "Ignoring %s jar %s, it has the same content as %s", kind, path, other);
+					return false;
+				}
+			}
+
+			sameSize.add(normalized);
+		} catch (IOException e) {
+			Log.debug(LogCategory.GAME_PROVIDER, "Could not check %s for duplicates: %s", path, e);
+		}
+
+		return true;
+	}
+
+	private String hash(Path path) throws IOException {
+		String ret = hashes.get(path);
+
+		if (ret == null) {
+			ret = Fingerprint.of(path);
+			hashes.put(path, ret);
+		}
+
+		return ret;
+	}
+}
@@ -0,0 +1,299 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import net.fabricmc.loader.impl.util.LoaderUtil;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+/**
+ * Opens each game jar once for all of the provider's startup reads: library classification, the entrypoint
+ * transformer, the version reader and the cache fingerprints. A pooled jar is mapped read-only and its channel closed
+ * straight away, so the pool holds no file descriptors, and its central directory is parsed once.
+ *
+ * <p>Other paths are read through a temporary handle, as is everything once the pool is closed. Disabled with
+ * <code>-Dfabric.btaProvider.disableJarPool</code>.
+ *
+ * <p>Thread safe.
+ */
+final class JarPool implements Closeable {
+	static final String DISABLE_PROPERTY = "fabric.btaProvider.disableJarPool";
+	static final JarPool NONE = new JarPool(Collections.emptyList());
+	private static final int LOC_SIG = 0x04034b50;
+	private static final int LOC_SIZE = 30;
+
+	private final Set<Path> pooled = ConcurrentHashMap.newKeySet();
+	private final Map<Path, Handle> handles = new ConcurrentHashMap<>();
+	private final AtomicInteger reads = new AtomicInteger();
+	private volatile boolean closed;
+
+	JarPool(Collection<Path> jars) {
+		for (Path jar : jars) {
+			pooled.add(LoaderUtil.normalizePath(jar));
+
+			// the classifier looks jars up by their real path
+			try {
+				pooled.add(LoaderUtil.normalizeExistingPath(jar));
+			} catch (RuntimeException ignored) {
+			}
+		}
+	}
+
+	static boolean isEnabled() {
+		return System.getProperty(DISABLE_PROPERTY) == null;
+	}
+
+	CentralDirectory centralDirectory(Path jar) throws IOException {
+		Handle handle = handle(jar);
+
+		return handle != null ? handle.directory : CentralDirectory.read(jar);
+	}
+
+	/**
+	 * @return the entry's uncompressed bytes, or <code>null</code> if the jar has no such entry
+	 */
+	byte[] readEntry(Path jar, String name) throws IOException {
+		Handle handle = handle(jar);
+		if (handle == null) return readUnpooled(jar, name);
+
+		return handle.read(name);
+	}
+
+	/**
+	 * Adds the jar's content to the fingerprint, hashing the shared mapping for pooled jars.
+	 */
+	Fingerprint addContent(Fingerprint fingerprint, Path jar) throws IOException {
+		Handle handle = handle(jar);
+
+		return handle != null ? fingerprint.addContent(handle.map) : fingerprint.addContent(jar);
+	}
+
+	/**
+	 * @return rough heap size of the parsed central directories and entry tables, not counting the mappings
+	 */
+	long estimateBytes() {
+		long ret = 0;
+
+		for (Handle handle : new HashSet<>(handles.values())) {
+			ret += handle.estimateBytes();
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Drops the mappings and parsed directories. The mapped pages are unmapped once the buffers are collected, Java 8
+	 * offers no way to do it eagerly.
+	 */
+	@Override
+	public void close() {
+		if (closed) return;
+
+		closed = true;
+		int mapped = new HashSet<>(handles.values()).size();
+		handles.clear();
+
+		if (mapped > 0) Log.debug(LogCategory.GAME_PROVIDER, "Closed jar pool, %d reads served from %d mapped jar%s", reads.get(), mapped, mapped != 1 ? "s" : "");
+	}
+
+	private Handle handle(Path jar) throws IOException {
+		if (closed) return null;
+
+		Path key = LoaderUtil.normalizePath(jar);
+		if (!pooled.contains(key)) return null;
+
+		Handle ret = handles.get(key);
+
+		if (ret == null) {
+			synchronized (this) {
+				ret = handles.get(key);
+
+				if (ret == null) {
+					ret = open(key);
+					if (ret == null) return null;
+
+					handles.put(key, ret);
+				}
+			}
+		}
+
+		reads.incrementAndGet();
+
+		return ret;
+	}
+
+	private Handle open(Path key) throws IOException {
+		// another key for the same file, e.g. the real path of a symlinked jar
+		Path real;
+
+		try {
+			real = LoaderUtil.normalizeExistingPath(key);
+		} catch (RuntimeException e) {
+			real = key;
+		}
+
+		Handle ret = handles.get(real);
+		if (ret != null) return ret;
+
+		try (FileChannel channel = FileChannel.open(key, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				Log.debug(LogCategory.GAME_PROVIDER, "Not pooling %s, too large to map", key);
+				pooled.remove(key);
+				pooled.remove(real);
+				return null;
+			}
+
+			ByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+			ret = new Handle(map.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN), CentralDirectory.read(map));
+		}
+
+		if (!real.equals(key)) handles.put(real, ret);
+
+		return ret;
+	}
+
+	private static byte[] readUnpooled(Path jar, String name) throws IOException {
+		try (ZipFile zf = new ZipFile(jar.toFile())) {
+			ZipEntry entry = zf.getEntry(name);
+			if (entry == null) return null;
+
+			try (InputStream is = zf.getInputStream(entry)) {
+				return readAll(is, (int) entry.getSize());
+			}
+		}
+	}
+
+	private static byte[] readAll(InputStream is, int sizeHint) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(sizeHint > 0 ? sizeHint : 8192);
+		byte[] buffer = new byte[8192];
+		int len;
+
+		while ((len = is.read(buffer)) >= 0) {
+			out.write(buffer, 0, len);
+		}
+
+		return out.toByteArray();
+	}
+
+	private static final class Handle {
+		final ByteBuffer map;
+		final CentralDirectory directory;
+		/** entry name to method, compressed size and local header offset, built on the first entry read. */
+		private volatile Map<String, int[]> entries;
+
+		Handle(ByteBuffer map, CentralDirectory directory) {
+			this.map = map;
+			this.directory = directory;
+		}
+
+		byte[] read(String name) throws ZipException {
+			int[] entry = entries().get(name);
+			if (entry == null) return null;
+
+			int header = entry[2];
+			if (header + LOC_SIZE > map.limit() || map.getInt(header) != LOC_SIG) throw new ZipException("Invalid local header for " + name);
+
+			int data = header + LOC_SIZE + (map.getShort(header + 26) & 0xffff) + (map.getShort(header + 28) & 0xffff);
+			if (data + (long) entry[1] > map.limit()) throw new ZipException("Truncated entry " + name);
+
+			ByteBuffer src = map.duplicate();
+			src.position(data);
+			src.limit(data + entry[1]);
+
+			switch (entry[0]) {
+			case ZipEntry.STORED: {
+				byte[] ret = new byte[entry[1]];
+				src.get(ret);
+				return ret;
+			}
+			case ZipEntry.DEFLATED: {
+				// nowrap inflation wants a trailing dummy byte
+				byte[] input = new byte[entry[1] + 1];
+				src.get(input, 0, entry[1]);
+				return inflate(input, name);
+			}
+			default:
+				throw new ZipException("Unsupported compression method " + entry[0] + " for " + name);
+			}
+		}
+
+		long estimateBytes() {
+			Map<String, int[]> entries = this.entries;
+			long ret = 64 + directory.estimateBytes();
+			if (entries == null) return ret;
+
+			for (String name : entries.keySet()) {
+				ret += 100 + 2L * name.length();
+			}
+
+			return ret;
+		}
+
+		private Map<String, int[]> entries() throws ZipException {
+			Map<String, int[]> ret = entries;
+
+			if (ret == null) {
+				synchronized (this) {
+					ret = entries;
+
+					if (ret == null) {
+						Map<String, int[]> map = new HashMap<>();
+						directory.forEachEntry((name, method, compressedSize, localHeaderOffset) -> {
+							map.putIfAbsent(name, new int[] { method, (int) compressedSize, (int) localHeaderOffset });
+						});
+						entries = ret = map;
+					}
+				}
+			}
+
+			return ret;
+		}
+
+		private static byte[] inflate(byte[] input, String name) throws ZipException {
+			Inflater inflater = new Inflater(true);
+
+			try {
+				inflater.setInput(input);
+				byte[] ret = new byte[Math.max(input.length * 3, 256)];
+				int len = 0;
+
+				while (!inflater.finished()) {
+					if (len == ret.length) ret = Arrays.copyOf(ret, ret.length * 2);
+
+					int n = inflater.inflate(ret, len, ret.length - len);
+					if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) throw new ZipException("Truncated entry " + name);
+
+					len += n;
+				}
+
+				return len == ret.length ? ret : Arrays.copyOf(ret, len);
+			} catch (DataFormatException e) {
+				throw new ZipException("Invalid entry " + name + ": " + e.getMessage());
+			} finally {
+				inflater.end();
+			}
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipException;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+/**
+ * Persistent record of which {@link LogLibrary} entries each classpath jar contains, keyed by path, size, mtime and
+ * optionally the content hash. Jars whose key is unchanged since the last launch are not opened again.
+ *
+ * <p>{@link #classify} may be called concurrently.
+ */
+final class LibraryIndex {
+	static final String HASH_PROPERTY = "fabric.btaProvider.hashLibraries";
+	private static final int FORMAT = 1;
+	private static final String[] PROBE_PATHS;
+	private static final LogLibrary[] PROBE_LIBS;
+
+	static {
+		List<String> paths = new ArrayList<>();
+		List<LogLibrary> libs = new ArrayList<>();
+
+		for (LogLibrary lib : LogLibrary.values()) {
+			for (String path : lib.getPaths()) {
+				paths.add(path);
+				libs.add(lib);
+			}
+		}
+
+		PROBE_PATHS = paths.toArray(new String[0]);
+		PROBE_LIBS = libs.toArray(new LogLibrary[0]);
+	}
+
+	private final Path file;
+	private final boolean hash;
+	private final JarPool jarPool;
+	private final Map<String, Entry> previous;
+	private final Map<String, Entry> current = new ConcurrentHashMap<>();
+	private final AtomicInteger hits = new AtomicInteger();
+	private volatile boolean dirty;
+
+	private LibraryIndex(Path file, boolean hash, JarPool jarPool, Map<String, Entry> previous) {
+		this.file = file;
+		this.hash = hash;
+		this.jarPool = jarPool;
+		this.previous = previous;
+	}
+
+	/**
+	 * @param jarPool shared handles for the jars that are probed or hashed
+	 */
+	static LibraryIndex open(Path gameDir, JarPool jarPool) {
+		Path file = ProviderCache.resolve(gameDir, "libraries.idx");
+		boolean hash = System.getProperty(HASH_PROPERTY) != null;
+		Map<String, Entry> entries = new HashMap<>();
+
+		if (ProviderCache.isEnabled()) {
+			try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+				if (in.readInt() == FORMAT && in.readUTF().equals(signature())) {
+					for (int i = in.readInt(); i > 0; i--) {
+						String path = in.readUTF();
+						entries.put(path, new Entry(in.readLong(), in.readLong(), in.readUTF(), in.readInt()));
+					}
+				}
+			} catch (NoSuchFileException ignored) {
+			} catch (IOException e) {
+				Log.debug(LogCategory.LIB_CLASSIFICATION, "Discarding unreadable library index %s: %s", file, e);
+				entries.clear();
+			}
+		}
+
+		return new LibraryIndex(file, hash, jarPool, entries);
+	}
+
+	/**
+	 * @return a bit mask of the {@link LogLibrary} ordinals whose paths are present in the jar
+	 */
+	int classify(Path jar) throws IOException {
+		String key = jar.toString();
+		Entry entry = current.get(key);
+		if (entry != null) return entry.mask;
+
+		BasicFileAttributes attributes = Files.readAttributes(jar, BasicFileAttributes.class);
+		long size = attributes.size();
+		long mtime = attributes.lastModifiedTime().toMillis();
+		String contentHash = hash ? jarPool.addContent(new Fingerprint(), jar).finish() : "";
+		entry = previous.get(key);
+
+		if (entry != null && entry.size == size && entry.mtime == mtime && entry.hash.equals(contentHash)) {
+			hits.incrementAndGet();
+		} else {
+			entry = new Entry(size, mtime, contentHash, probe(jar));
+			dirty = true;
+		}
+
+		current.put(key, entry);
+
+		return entry.mask;
+	}
+
+	private int probe(Path jar) throws IOException {
+		int mask = 0;
+
+		try {
+			int found = jarPool.centralDirectory(jar).match(PROBE_PATHS);
+
+			for (int i = 0; i < PROBE_PATHS.length; i++) {
+				if ((found & 1 << i) != 0) mask |= 1 << PROBE_LIBS[i].ordinal();
+			}
+		} catch (ZipException e) {
+			Log.debug(LogCategory.LIB_CLASSIFICATION, "Not classifying %s, not a valid zip: %s", jar, e);
+		}
+
+		return mask;
+	}
+
+	/**
+	 * Persists the entries seen during this launch, dropping jars that are no longer on the classpath.
+	 */
+	void save() {
+		Log.debug(LogCategory.LIB_CLASSIFICATION, "Library index: %d of %d jars unchanged", hits.get(), current.size());
+
+		if (!ProviderCache.isEnabled() || !dirty && current.size() == previous.size()) return;
+
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+			try (DataOutputStream out = new DataOutputStream(bytes)) {
+				out.writeInt(FORMAT);
+				out.writeUTF(signature());
+				out.writeInt(current.size());
+
+				for (Map.Entry<String, Entry> e : current.entrySet()) {
+					out.writeUTF(e.getKey());
+					out.writeLong(e.getValue().size);
+					out.writeLong(e.getValue().mtime);
+					out.writeUTF(e.getValue().hash);
+					out.writeInt(e.getValue().mask);
+				}
+			}
+
+			ProviderCache.write(file, bytes.toByteArray());
+		} catch (IOException e) {
+			Log.warn(LogCategory.LIB_CLASSIFICATION, "Failed to write library index " + file, e);
+		}
+	}
+
+	/**
+	 * Invalidates the whole index when the provider or the set of probed paths changes.
+	 */
+	private static String signature() {
+		StringBuilder sb = new StringBuilder(ProviderCache.providerVersion());
+
+		for (LogLibrary lib : LogLibrary.values()) {
+			sb.append(';').append(lib.name()).append('=').append(String.join(",", lib.getPaths()));
+		}
+
+		return sb.toString();
+	}
+
+	private static final class Entry {
+		final long size;
+		final long mtime;
+		final String hash;
+		final int mask;
+
+		Entry(long size, long mtime, String hash, int mask) {
+			this.size = size;
+			this.mtime = mtime;
+			this.hash = hash;
+			this.mask = mask;
+		}
+	}
+}
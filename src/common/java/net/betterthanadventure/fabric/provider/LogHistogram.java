@@ -0,0 +1,104 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free, allocation-free histogram of non-negative long values (typically nanoseconds) with logarithmic buckets:
+ * each power of two is split into 16 linear sub-buckets, which keeps the relative error of percentiles below 1/16.
+ */
+final class LogHistogram {
+	private static final int SUB_BITS = 4;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	void record(long value) {
+		if (value < 0) value = 0;
+
+		counts.incrementAndGet(index(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long prev;
+
+		while (value > (prev = max.get())) {
+			if (max.compareAndSet(prev, value)) break;
+		}
+	}
+
+	long getCount() {
+		return count.get();
+	}
+
+	long getMax() {
+		return max.get();
+	}
+
+	double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * @param quantile between 0 and 1
+	 * @return the upper bound of the bucket containing the quantile, capped at the maximum; 0 when empty
+	 */
+	long getQuantile(double quantile) {
+		long n = 0;
+		long[] snapshot = new long[BUCKETS];
+
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			n += snapshot[i];
+		}
+
+		if (n == 0) return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(quantile * n));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) return Math.min(upperBound(i), max.get());
+		}
+
+		return max.get();
+	}
+
+	/**
+	 * Not atomic with respect to concurrent {@link #record} calls, which may be partly kept.
+	 */
+	void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	static int index(long value) {
+		if (value < SUB_COUNT) return (int) value;
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+
+		return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+	}
+
+	static long upperBound(int index) {
+		if (index < SUB_COUNT) return index;
+
+		int exponent = index / SUB_COUNT + SUB_BITS - 1;
+		long sub = index % SUB_COUNT;
+		long lower = (1L << exponent) | (sub << (exponent - SUB_BITS));
+
+		return lower + (1L << (exponent - SUB_BITS)) - 1;
+	}
+}
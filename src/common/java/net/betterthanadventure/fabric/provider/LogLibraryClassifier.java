@@ -0,0 +1,153 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import net.fabricmc.api.EnvType;
+import net.fabricmc.loader.impl.game.LibClassifier;
+import net.fabricmc.loader.impl.util.LoaderUtil;
+
+/**
+ * Drop-in for {@link LibClassifier#process}/{@link LibClassifier#has}/{@link LibClassifier#getOrigin} on
+ * {@link LogLibrary}, backed by a {@link LibraryIndex}. The first jar providing a library stays its origin and system
+ * libraries are skipped, as in {@link LibClassifier}.
+ *
+ * <p>With <code>-Dfabric.btaProvider.parallelClassification[=threads]</code> the jars passed to
+ * {@link #process(Iterable)} are probed on a bounded fork-join pool, then merged in classpath order.
+ */
+final class LogLibraryClassifier {
+	static final String PARALLEL_PROPERTY = "fabric.btaProvider.parallelClassification";
+
+	private final EnvType env;
+	private final Collection<Path> systemLibraries;
+	private final LibraryIndex index;
+	private final Map<LogLibrary, Path> origins = new EnumMap<>(LogLibrary.class);
+
+	LogLibraryClassifier(EnvType env, Collection<Path> systemLibraries, LibraryIndex index) {
+		this.env = env;
+		this.systemLibraries = systemLibraries;
+		this.index = index;
+	}
+
+	void process(Iterable<Path> paths) throws IOException {
+		int parallelism = getParallelism();
+
+		if (parallelism <= 1) {
+			for (Path path : paths) {
+				process(path);
+			}
+
+			return;
+		}
+
+		List<Callable<Probe>> tasks = new ArrayList<>();
+
+		for (Path path : paths) {
+			tasks.add(() -> probe(path));
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, Math.max(tasks.size(), 1)));
+
+		try {
+			for (Future<Probe> future : pool.invokeAll(tasks)) {
+				merge(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while classifying the classpath", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	void process(Path path) throws IOException {
+		merge(probe(path));
+	}
+
+	/**
+	 * Does the I/O for one classpath entry without touching {@link #origins}, so it can run off-thread.
+	 */
+	private Probe probe(Path path) throws IOException {
+		if (!Files.exists(path)) return null;
+
+		path = LoaderUtil.normalizeExistingPath(path);
+		if (systemLibraries.contains(path)) return null;
+
+		if (Files.isDirectory(path)) {
+			int mask = 0;
+
+			for (LogLibrary lib : LogLibrary.values()) {
+				for (String libPath : lib.getPaths()) {
+					if (Files.exists(path.resolve(libPath))) {
+						mask |= 1 << lib.ordinal();
+						break;
+					}
+				}
+			}
+
+			return new Probe(path, mask);
+		}
+
+		return new Probe(path, index.classify(path));
+	}
+
+	private void merge(Probe probe) {
+		if (probe != null) add(probe.path, probe.mask);
+	}
+
+	void add(Path path, int mask) {
+		for (LogLibrary lib : LogLibrary.values()) {
+			if ((mask & 1 << lib.ordinal()) != 0 && lib.isApplicable(env) && !origins.containsKey(lib)) {
+				origins.put(lib, path);
+			}
+		}
+	}
+
+	boolean has(LogLibrary lib) {
+		return origins.containsKey(lib);
+	}
+
+	Path getOrigin(LogLibrary lib) {
+		return origins.get(lib);
+	}
+
+	void save() {
+		index.save();
+	}
+
+	private static int getParallelism() {
+		String value = System.getProperty(PARALLEL_PROPERTY);
+		if (value == null) return 1;
+
+		try {
+			int threads = Integer.parseInt(value);
+			if (threads > 0) return threads;
+		} catch (NumberFormatException ignored) {
+		}
+
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	private static final class Probe {
+		final Path path;
+		final int mask;
+
+		Probe(Path path, int mask) {
+			this.path = path;
+			this.mask = mask;
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+/**
+ * Merges the game jars into one uncompressed jar in the provider cache, enabled with
+ * <code>-Dfabric.btaProvider.mergeGameJars</code>. Class loading then searches a single jar and never inflates.
+ *
+ * <p>Entries are written in sorted order and stored, so {@link JarPool} serves them straight from its mapping without
+ * inflating. The merged jar is named after the paths, sizes and mtimes of its sources and rebuilt when any of them
+ * changes.
+ */
+final class MergedGameJar {
+	static final String PROPERTY = "fabric.btaProvider.mergeGameJars";
+	private static final String PREFIX = "merged-";
+	private static final String TMP_PREFIX = "tmp-";
+	/** temp files older than this were left by a JVM that died while merging. */
+	private static final long STALE_TMP_MILLIS = 60 * 60 * 1000;
+
+	private MergedGameJar() {
+	}
+
+	static boolean isEnabled() {
+		return System.getProperty(PROPERTY) != null && ProviderCache.isEnabled();
+	}
+
+	/**
+	 * @return the merged jar, built if needed, or <code>null</code> if merging failed
+	 */
+	static Path merge(Path gameDir, List<Path> jars) {
+		Path dir = ProviderCache.resolve(gameDir, "merged");
+
+		try {
+			Fingerprint fingerprint = new Fingerprint().add(ProviderCache.providerVersion());
+
+			for (Path jar : jars) {
+				BasicFileAttributes attributes = Files.readAttributes(jar, BasicFileAttributes.class);
+				fingerprint.add(jar.toAbsolutePath().toString()).add(Long.toString(attributes.size())).add(Long.toString(attributes.lastModifiedTime().toMillis()));
+			}
+
+			Path merged = dir.resolve(PREFIX + fingerprint.finish().substring(0, 16) + ".jar");
+
+			if (Files.exists(merged)) {
+				Log.debug(LogCategory.GAME_PROVIDER, "Reusing merged game jar %s", merged);
+				return merged;
+			}
+
+			long start = System.nanoTime();
+			Files.createDirectories(dir);
+			deleteOthers(dir, merged);
+			write(jars, merged);
+			Log.info(LogCategory.GAME_PROVIDER, "Merged %d game jar%s into %s in %.1f ms", jars.size(), jars.size() != 1 ? "s" : "", merged, (System.nanoTime() - start) / 1e6);
+
+			return merged;
+		} catch (IOException e) {
+			Log.warn(LogCategory.GAME_PROVIDER, "Failed to merge game jars, using them as they are", e);
+			return null;
+		}
+	}
+
+	private static void write(List<Path> jars, Path merged) throws IOException {
+		List<ZipFile> sources = new ArrayList<>();
+		// unique per writer, so JVMs merging into the same cache concurrently don't share a file
+		Path tmp = Files.createTempFile(merged.getParent(), TMP_PREFIX, ".jar");
+
+		try {
+			// first jar wins, like on the classpath
+			Map<String, ZipFile> owners = new TreeMap<>();
+
+			for (Path jar : jars) {
+				ZipFile zf = new ZipFile(jar.toFile());
+				sources.add(zf);
+
+				for (Enumeration<? extends ZipEntry> e = zf.entries(); e.hasMoreElements(); ) {
+					String name = e.nextElement().getName();
+					if (!isSignature(name)) owners.putIfAbsent(name, zf);
+				}
+			}
+
+			try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(tmp))) {
+				out.setMethod(ZipOutputStream.STORED);
+				CRC32 crc = new CRC32();
+
+				for (Map.Entry<String, ZipFile> owner : owners.entrySet()) {
+					ZipEntry source = owner.getValue().getEntry(owner.getKey());
+					byte[] data;
+
+					try (InputStream is = owner.getValue().getInputStream(source)) {
+						data = readAll(is);
+					}
+
+					crc.reset();
+					crc.update(data);
+
+					ZipEntry entry = new ZipEntry(owner.getKey());
+					entry.setMethod(ZipEntry.STORED);
+					entry.setSize(data.length);
+					entry.setCompressedSize(data.length);
+					entry.setCrc(crc.getValue());
+					if (source.getTime() != -1) entry.setTime(source.getTime());
+
+					out.putNextEntry(entry);
+					out.write(data);
+					out.closeEntry();
+				}
+			}
+
+			try {
+				// replaces the target on POSIX, so concurrent writers just publish the same content twice
+				Files.move(tmp, merged, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				// Windows only: a jar another JVM has open can't be replaced, and its name says it has the same content
+				if (!Files.exists(merged)) throw e;
+			}
+		} finally {
+			for (ZipFile zf : sources) {
+				zf.close();
+			}
+
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Signatures of the source jars don't cover the merged jar and would fail verification.
+	 */
+	private static boolean isSignature(String name) {
+		if (!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) >= 0) return false;
+
+		String upper = name.toUpperCase(Locale.ROOT);
+		return upper.endsWith(".SF") || upper.endsWith(".RSA") || upper.endsWith(".DSA") || upper.endsWith(".EC");
+	}
+
+	private static void deleteOthers(Path dir, Path keep) throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*")) {
+			for (Path file : files) {
+				if (!file.equals(keep)) Files.deleteIfExists(file);
+			}
+		}
+
+		long staleBefore = System.currentTimeMillis() - STALE_TMP_MILLIS;
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, TMP_PREFIX + "*")) {
+			for (Path file : files) {
+				if (Files.getLastModifiedTime(file).toMillis() < staleBefore) Files.deleteIfExists(file);
+			}
+		}
+	}
+
+	private static byte[] readAll(InputStream is) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int len;
+
+		while ((len = is.read(buffer)) >= 0) {
+			out.write(buffer, 0, len);
+		}
+
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,220 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+
+import net.fabricmc.api.ClientModInitializer;
+import net.fabricmc.api.DedicatedServerModInitializer;
+import net.fabricmc.api.ModInitializer;
+import net.fabricmc.loader.api.entrypoint.EntrypointContainer;
+import net.fabricmc.loader.api.metadata.CustomValue;
+import net.fabricmc.loader.api.metadata.ModDependency;
+import net.fabricmc.loader.api.metadata.ModMetadata;
+import net.fabricmc.loader.impl.FabricLoaderImpl;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+/**
+ * Replacement for {@link net.fabricmc.loader.impl.game.minecraft.Hooks} that runs the <code>main</code> entrypoints of
+ * opted-in mods on a fork-join pool, enabled with <code>-Dfabric.btaProvider.parallelEntrypoints</code> (a thread
+ * count, or any other value for one per core).
+ *
+ * <p>A mod opts in with <code>"custom": { "bta-provider:parallel_init": true }</code> in its <code>fabric.mod.json</code>.
+ * Entrypoints keep the loader's order: consecutive opted-in entrypoints form a wave that runs in parallel, and a wave
+ * ends before any entrypoint that isn't opted in, belongs to a mod already in the wave or depends on one. Other mods
+ * therefore run on the calling thread exactly like before. Every entrypoint runs even if an earlier one failed, and
+ * failures are reported in entrypoint order, the first as the cause and the rest suppressed, like the loader does.
+ * The <code>client</code> and <code>server</code> stages still run sequentially through the loader.
+ */
+public final class ParallelHooks {
+	static final String PROPERTY = "fabric.btaProvider.parallelEntrypoints";
+	static final String OPT_IN_KEY = "bta-provider:parallel_init";
+	static final String INTERNAL_NAME = ParallelHooks.class.getName().replace('.', '/');
+
+	private ParallelHooks() { }
+
+	static boolean isEnabled() {
+		return System.getProperty(PROPERTY) != null;
+	}
+
+	public static void startClient(File runDir, Object gameInstance) {
+		if (runDir == null) {
+			runDir = new File(".");
+		}
+
+		FabricLoaderImpl loader = FabricLoaderImpl.INSTANCE;
+		loader.prepareModInit(runDir.toPath(), gameInstance);
+		invokeMain(loader);
+		loader.invokeEntrypoints("client", ClientModInitializer.class, ClientModInitializer::onInitializeClient);
+	}
+
+	public static void startServer(File runDir, Object gameInstance) {
+		if (runDir == null) {
+			runDir = new File(".");
+		}
+
+		FabricLoaderImpl loader = FabricLoaderImpl.INSTANCE;
+		loader.prepareModInit(runDir.toPath(), gameInstance);
+		invokeMain(loader);
+		loader.invokeEntrypoints("server", DedicatedServerModInitializer.class, DedicatedServerModInitializer::onInitializeServer);
+	}
+
+	private static void invokeMain(FabricLoaderImpl loader) {
+		List<EntrypointContainer<ModInitializer>> containers = loader.getEntrypointContainers("main", ModInitializer.class);
+		Throwable[] failures = new Throwable[containers.size()];
+		Wave wave = new Wave(failures);
+		long start = System.nanoTime();
+
+		try {
+			for (int i = 0; i < containers.size(); i++) {
+				EntrypointContainer<ModInitializer> container = containers.get(i);
+				ModMetadata metadata = container.getProvider().getMetadata();
+
+				if (!optsIn(metadata)) {
+					wave.run();
+					invoke(container, i, failures);
+					continue;
+				}
+
+				if (wave.conflicts(metadata)) wave.run();
+				wave.add(container, i);
+			}
+
+			wave.run();
+		} finally {
+			wave.close();
+		}
+
+		Log.debug(LogCategory.ENTRYPOINT, "Ran %d main entrypoints, %d in parallel over %d waves, in %d ms",
+				containers.size(), wave.parallelCount, wave.parallelWaves, (System.nanoTime() - start) / 1000000);
+
+		RuntimeException exception = null;
+
+		for (int i = 0; i < failures.length; i++) {
+			if (failures[i] == null) continue;
+
+			if (exception == null) {
+				String modId = containers.get(i).getProvider().getMetadata().getId();
+				exception = new RuntimeException(String.format("Could not execute entrypoint stage 'main' due to errors, provided by '%s'!", modId), failures[i]);
+			} else {
+				exception.addSuppressed(failures[i]);
+			}
+		}
+
+		if (exception != null) throw exception;
+	}
+
+	private static boolean optsIn(ModMetadata metadata) {
+		if (!metadata.containsCustomValue(OPT_IN_KEY)) return false;
+
+		CustomValue value = metadata.getCustomValue(OPT_IN_KEY);
+		return value.getType() == CustomValue.CvType.BOOLEAN && value.getAsBoolean();
+	}
+
+	private static void invoke(EntrypointContainer<ModInitializer> container, int index, Throwable[] failures) {
+		try {
+			container.getEntrypoint().onInitialize();
+		} catch (Throwable t) {
+			failures[index] = t;
+		}
+	}
+
+	private static int getParallelism() {
+		try {
+			int threads = Integer.parseInt(System.getProperty(PROPERTY));
+			if (threads > 0) return threads;
+		} catch (NumberFormatException ignored) {
+		}
+
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	private static final class Wave {
+		private final Throwable[] failures;
+		private final List<Callable<Void>> tasks = new ArrayList<>();
+		private final Set<String> modIds = new HashSet<>();
+		private ForkJoinPool pool;
+		int parallelCount;
+		int parallelWaves;
+
+		Wave(Throwable[] failures) {
+			this.failures = failures;
+		}
+
+		boolean conflicts(ModMetadata metadata) {
+			if (modIds.contains(metadata.getId())) return true;
+
+			for (ModDependency dependency : metadata.getDependencies()) {
+				if (dependency.getKind() != ModDependency.Kind.CONFLICTS && dependency.getKind() != ModDependency.Kind.BREAKS
+						&& modIds.contains(dependency.getModId())) {
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		void add(EntrypointContainer<ModInitializer> container, int index) {
+			modIds.add(container.getProvider().getMetadata().getId());
+			tasks.add(() -> {
+				invoke(container, index, failures);
+				return null;
+			});
+		}
+
+		void run() {
+			if (tasks.isEmpty()) return;
+
+			try {
+				if (tasks.size() == 1) {
+					tasks.get(0).call();
+					return;
+				}
+
+				if (pool == null) pool = createPool();
+
+				for (Future<Void> future : pool.invokeAll(tasks)) {
+					future.get();
+				}
+
+				parallelCount += tasks.size();
+				parallelWaves++;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while running main entrypoints", e);
+			} catch (ExecutionException e) {
+				// invoke() catches everything, so this is unexpected
+				throw new RuntimeException(e.getCause());
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			} finally {
+				tasks.clear();
+				modIds.clear();
+			}
+		}
+
+		void close() {
+			if (pool != null) pool.shutdown();
+		}
+
+		private static ForkJoinPool createPool() {
+			// entrypoints may look up resources or classes through the context class loader, which has to be Knot's
+			ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+
+			return new ForkJoinPool(getParallelism(), pool -> {
+				ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				thread.setName("Mod initializer " + thread.getPoolIndex());
+				thread.setContextClassLoader(contextClassLoader);
+				return thread;
+			}, null, false);
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Location and helpers for the provider's persistent caches, kept in <code>.fabric/bta-provider</code> under the game directory.
+ */
+final class ProviderCache {
+	static final String DISABLE_PROPERTY = "fabric.btaProvider.disableCache";
+
+	private ProviderCache() {
+	}
+
+	static boolean isEnabled() {
+		return System.getProperty(DISABLE_PROPERTY) == null;
+	}
+
+	static Path resolve(Path gameDir, String name) {
+		return gameDir.toAbsolutePath().normalize().resolve(".fabric").resolve("bta-provider").resolve(name);
+	}
+
+	/**
+	 * @return the provider version from the jar manifest, or "dev" when running from classes
+	 */
+	static String providerVersion() {
+		String version = ProviderCache.class.getPackage().getImplementationVersion();
+		return version != null ? version : "dev";
+	}
+
+	/**
+	 * Writes to a uniquely named sibling temp file first, so a crash never leaves a truncated cache entry behind and
+	 * two processes sharing the game directory can't write into each other's temp file.
+	 */
+	static void write(Path file, byte[] data) throws IOException {
+		Files.createDirectories(file.getParent());
+		Path tmp = Files.createTempFile(file.getParent(), file.getFileName() + ".", ".tmp");
+
+		try {
+			Files.write(tmp, data);
+
+			try {
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+}
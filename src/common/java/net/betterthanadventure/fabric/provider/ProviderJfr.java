@@ -0,0 +1,71 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+/**
+ * JFR events of the provider. The base build targets Java 8, so the event type is defined at runtime through
+ * <code>jdk.jfr.EventFactory</code>, and without JFR in the running JVM this is a no-op. Java 17+ loads the
+ * <code>META-INF/versions/17</code> copy instead, which declares the event class directly. The time field can't be
+ * called "duration", which JFR reserves.
+ */
+final class ProviderJfr {
+	private static final Object FACTORY;
+	private static final Method NEW_EVENT;
+	private static final Method SET;
+	private static final Method COMMIT;
+
+	static {
+		Object factory = null;
+		Method newEvent = null, set = null, commit = null;
+
+		try {
+			Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+			Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+			Class<?> factoryCls = Class.forName("jdk.jfr.EventFactory");
+			Class<?> eventCls = Class.forName("jdk.jfr.Event");
+			Constructor<?> annotation = annotationElement.getConstructor(Class.class, Object.class);
+			Constructor<?> field = valueDescriptor.getConstructor(Class.class, String.class, List.class);
+
+			List<Object> eventAnnotations = Arrays.asList(
+					annotation.newInstance(Class.forName("jdk.jfr.Name"), "net.betterthanadventure.ProviderPhase"),
+					annotation.newInstance(Class.forName("jdk.jfr.Label"), "BTA Provider Phase"),
+					annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[] { "BTA", "Startup" }));
+			List<Object> fields = Arrays.asList(
+					field.newInstance(String.class, "phase", Collections.singletonList(annotation.newInstance(Class.forName("jdk.jfr.Label"), "Phase"))),
+					field.newInstance(long.class, "elapsed", Collections.singletonList(annotation.newInstance(Class.forName("jdk.jfr.Timespan"), "NANOSECONDS"))));
+
+			factory = factoryCls.getMethod("create", List.class, List.class).invoke(null, eventAnnotations, fields);
+			newEvent = factoryCls.getMethod("newEvent");
+			set = eventCls.getMethod("set", int.class, Object.class);
+			commit = eventCls.getMethod("commit");
+		} catch (Throwable t) {
+			Log.debug(LogCategory.GAME_PROVIDER, "JFR events unavailable: %s", t);
+			factory = null;
+		}
+
+		FACTORY = factory;
+		NEW_EVENT = newEvent;
+		SET = set;
+		COMMIT = commit;
+	}
+
+	static void commitPhase(String phase, long elapsed) {
+		if (FACTORY == null) return;
+
+		try {
+			Object event = NEW_EVENT.invoke(FACTORY);
+			SET.invoke(event, 0, phase);
+			SET.invoke(event, 1, elapsed);
+			COMMIT.invoke(event);
+		} catch (ReflectiveOperationException e) {
+			Log.debug(LogCategory.GAME_PROVIDER, "Failed to commit JFR event: %s", e);
+		}
+	}
+}
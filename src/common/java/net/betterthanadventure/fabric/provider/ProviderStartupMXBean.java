@@ -0,0 +1,27 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.util.Map;
+
+/**
+ * Launch phase timings and memory of the game provider, registered as
+ * <code>net.betterthanadventure:type=ProviderStartup</code> once the game is launched if
+ * <code>-Dfabric.btaProvider.startupReport</code> is set. Heap values are the used heap when a phase began and ended,
+ * including garbage not collected yet. Released and retained sizes are estimates of the provider's own data.
+ */
+public interface ProviderStartupMXBean {
+	Map<String, Long> getPhaseNanos();
+
+	Map<String, Long> getHeapUsedBeforeBytes();
+
+	Map<String, Long> getHeapUsedAfterBytes();
+
+	/**
+	 * @return estimated size of each kind of startup data the provider dropped after launch
+	 */
+	Map<String, Long> getReleasedBytes();
+
+	/**
+	 * @return estimated size of the data the provider keeps for the rest of the game's life
+	 */
+	long getRetainedBytes();
+}
@@ -0,0 +1,237 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+/**
+ * Nanosecond timings and heap usage of the provider's launch phases. Each phase is also committed as a
+ * <code>net.betterthanadventure.ProviderPhase</code> JFR event, and {@link #report} logs a summary. With
+ * <code>-Dfabric.btaProvider.startupReport</code> it also writes <code>startup.json</code> next to the other provider
+ * caches and registers the {@link ProviderStartupMXBean}; both run just before the game's main, so they are off by
+ * default.
+ *
+ * <p>Heap usage is read from {@link Runtime} rather than the memory MXBean, which would load the management classes
+ * during the phase being measured.
+ */
+final class StartupTimings implements ProviderStartupMXBean {
+	static final String REPORT_PROPERTY = "fabric.btaProvider.startupReport";
+
+	enum Phase {
+		LOCATE_GAME("locateGame"),
+		CLASSIFY_LIBRARIES("classifyLibraries"),
+		INITIALIZE("initialize"),
+		SETUP_LOG_HANDLER("setupLogHandler"),
+		TRANSFORM_ENTRYPOINT("transformEntrypoint"),
+		UNLOCK_CLASS_PATH("unlockClassPath"),
+		LAUNCH("launch");
+
+		final String id;
+
+		Phase(String id) {
+			this.id = id;
+		}
+	}
+
+	private final long[] durations = new long[Phase.values().length];
+	private final long[] heapBefore = new long[Phase.values().length];
+	private final long[] heapAfter = new long[Phase.values().length];
+	private final Map<String, Long> released = new LinkedHashMap<>();
+	private long retained;
+
+	StartupTimings() {
+		Arrays.fill(durations, -1);
+	}
+
+	/**
+	 * @return the start timestamp to pass to {@link #end}
+	 */
+	long begin(Phase phase) {
+		heapBefore[phase.ordinal()] = heapUsed();
+		return System.nanoTime();
+	}
+
+	void end(Phase phase, long start) {
+		long duration = System.nanoTime() - start;
+		durations[phase.ordinal()] = duration;
+		heapAfter[phase.ordinal()] = heapUsed();
+		ProviderJfr.commitPhase(phase.id, duration);
+	}
+
+	/**
+	 * Records startup data the provider dropped after launch.
+	 *
+	 * @param bytes estimated size
+	 */
+	void released(String what, long bytes) {
+		released.merge(what, bytes, Long::sum);
+	}
+
+	/**
+	 * @param bytes estimated size of the data the provider keeps after launch
+	 */
+	void retained(long bytes) {
+		retained = bytes;
+	}
+
+	long get(Phase phase) {
+		return durations[phase.ordinal()];
+	}
+
+	void report(Path gameDir, String provider, String gameVersion) {
+		StringBuilder line = new StringBuilder("Provider startup:");
+
+		for (Phase phase : Phase.values()) {
+			long duration = durations[phase.ordinal()];
+			if (duration >= 0) line.append(String.format(Locale.ROOT, " %s %.2f ms,", phase.id, duration / 1e6));
+		}
+
+		line.setLength(line.length() - 1);
+		Log.info(LogCategory.GAME_PROVIDER, "%s", line);
+
+		long releasedTotal = 0;
+		for (long bytes : released.values()) releasedTotal += bytes;
+
+		Log.info(LogCategory.GAME_PROVIDER, "Provider memory: heap %.1f MB before locateGame, %.1f MB after launch, released ~%d KB of startup data %s, retains ~%d KB",
+				heapBefore[Phase.LOCATE_GAME.ordinal()] / 1048576.0, heapAfter[Phase.LAUNCH.ordinal()] / 1048576.0,
+				releasedTotal / 1024, released, retained / 1024);
+
+		if (System.getProperty(REPORT_PROPERTY) == null) return;
+
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("net.betterthanadventure:type=ProviderStartup"));
+		} catch (Exception e) {
+			Log.debug(LogCategory.GAME_PROVIDER, "Failed to register the provider startup MXBean: %s", e);
+		}
+
+		Path file = ProviderCache.resolve(gameDir, "startup.json");
+
+		try {
+			ProviderCache.write(file, toJson(provider, gameVersion).getBytes(StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			Log.warn(LogCategory.GAME_PROVIDER, "Failed to write " + file, e);
+		}
+	}
+
+	private String toJson(String provider, String gameVersion) {
+		StringBuilder json = new StringBuilder("{\n");
+		json.append("  \"provider\": ").append(quote(provider)).append(",\n");
+		json.append("  \"providerVersion\": ").append(quote(ProviderCache.providerVersion())).append(",\n");
+		json.append("  \"gameVersion\": ").append(quote(gameVersion)).append(",\n");
+		json.append("  \"javaVersion\": ").append(quote(System.getProperty("java.version"))).append(",\n");
+		json.append("  \"timestamp\": ").append(System.currentTimeMillis()).append(",\n");
+		appendJson(json, "phasesNanos", getPhaseNanos()).append(",\n");
+		appendJson(json, "heapUsedBeforeBytes", getHeapUsedBeforeBytes()).append(",\n");
+		appendJson(json, "heapUsedAfterBytes", getHeapUsedAfterBytes()).append(",\n");
+		appendJson(json, "releasedBytes", released).append(",\n");
+		json.append("  \"retainedBytes\": ").append(retained).append("\n}\n");
+
+		return json.toString();
+	}
+
+	@Override
+	public Map<String, Long> getPhaseNanos() {
+		return byPhase(durations);
+	}
+
+	@Override
+	public Map<String, Long> getHeapUsedBeforeBytes() {
+		return byPhase(heapBefore);
+	}
+
+	@Override
+	public Map<String, Long> getHeapUsedAfterBytes() {
+		return byPhase(heapAfter);
+	}
+
+	@Override
+	public Map<String, Long> getReleasedBytes() {
+		return new LinkedHashMap<>(released);
+	}
+
+	@Override
+	public long getRetainedBytes() {
+		return retained;
+	}
+
+	private Map<String, Long> byPhase(long[] values) {
+		Map<String, Long> ret = new LinkedHashMap<>();
+
+		for (Phase phase : Phase.values()) {
+			if (durations[phase.ordinal()] >= 0) ret.put(phase.id, values[phase.ordinal()]);
+		}
+
+		return ret;
+	}
+
+	private static StringBuilder appendJson(StringBuilder json, String name, Map<String, Long> values) {
+		json.append("  ").append(quote(name)).append(": {");
+		boolean first = true;
+
+		for (Map.Entry<String, Long> entry : values.entrySet()) {
+			json.append(first ? "\n" : ",\n").append("    ").append(quote(entry.getKey())).append(": ").append(entry.getValue());
+			first = false;
+		}
+
+		return json.append(first ? "}" : "\n  }");
+	}
+
+	private static long heapUsed() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Rough size of paths held in collections: the path object, its string and a collection slot each.
+	 */
+	static long estimatePaths(Collection<Path> paths) {
+		long ret = 0;
+
+		for (Path path : paths) {
+			ret += 96 + 2L * path.toString().length();
+		}
+
+		return ret;
+	}
+
+	static long estimateStrings(String[] strings) {
+		long ret = 16 + 4L * strings.length;
+
+		for (String string : strings) {
+			ret += 40 + 2L * string.length();
+		}
+
+		return ret;
+	}
+
+	private static String quote(String value) {
+		if (value == null) return "null";
+
+		StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+
+		return sb.append('"').toString();
+	}
+}
@@ -0,0 +1,33 @@
+package net.betterthanadventure.fabric.provider;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Java 17+ version of the provider's JFR events, declaring the event class directly. Disabled events cost a single
+ * check in {@link Event#shouldCommit()} instead of a reflective event instantiation.
+ */
+final class ProviderJfr {
+	static void commitPhase(String phase, long elapsed) {
+		PhaseEvent event = new PhaseEvent();
+		if (!event.shouldCommit()) return;
+
+		event.phase = phase;
+		event.elapsed = elapsed;
+		event.commit();
+	}
+
+	@Name("net.betterthanadventure.ProviderPhase")
+	@Label("BTA Provider Phase")
+	@Category({ "BTA", "Startup" })
+	private static final class PhaseEvent extends Event {
+		@Label("Phase")
+		String phase;
+
+		@Timespan(Timespan.NANOSECONDS)
+		long elapsed;
+	}
+}
@@ -0,0 +1,77 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.fabricmc.api.EnvType;
+import net.fabricmc.loader.impl.launch.FabricLauncher;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+import net.fabricmc.loader.impl.util.log.LogHandler;
+import net.fabricmc.loader.impl.util.log.LogLevel;
+
+/**
+ * Just enough of a {@link FabricLauncher} to drive a provider through its phases outside of Knot. Built as a proxy so
+ * it keeps working across loader versions that add launcher methods.
+ */
+final class BenchLauncher {
+	final EnvType env;
+	final String entrypoint;
+	final List<Path> classPath;
+	final List<Path> added = new ArrayList<>();
+
+	BenchLauncher(EnvType env, String entrypoint, List<Path> classPath) {
+		this.env = env;
+		this.entrypoint = entrypoint;
+		this.classPath = classPath;
+	}
+
+	FabricLauncher create() {
+		return (FabricLauncher) Proxy.newProxyInstance(FabricLauncher.class.getClassLoader(), new Class<?>[] { FabricLauncher.class }, (proxy, method, args) -> {
+			switch (method.getName()) {
+			case "getEnvironmentType":
+				return env;
+			case "getEntrypoint":
+				return entrypoint;
+			case "getClassPath":
+				return Collections.unmodifiableList(classPath);
+			case "addToClassPath":
+				added.add((Path) args[0]);
+				return null;
+			case "getTargetClassLoader":
+				return BenchLauncher.class.getClassLoader();
+			case "loadIntoTarget":
+				// the provider only loads its log handler this way
+				return NullLogHandler.class;
+			case "isDevelopment":
+				return false;
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "equals":
+				return proxy == args[0];
+			case "toString":
+				return "BenchLauncher";
+			default:
+				Class<?> type = method.getReturnType();
+				return type == boolean.class ? Boolean.FALSE : null;
+			}
+		});
+	}
+
+	public static final class NullLogHandler implements LogHandler {
+		@Override
+		public void log(long time, LogLevel level, LogCategory category, String msg, Throwable exc, boolean fromReplay, boolean wasSuppressed) {
+		}
+
+		@Override
+		public boolean shouldLog(LogLevel level, LogCategory category) {
+			return false;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipFile;
+
+import net.fabricmc.api.EnvType;
+import net.fabricmc.loader.impl.game.GameProvider;
+import net.fabricmc.loader.impl.launch.FabricLauncher;
+import net.fabricmc.loader.impl.util.SystemProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times each {@link GameProvider} launch phase against synthetic game and library jars.
+ *
+ * <p>Run with <code>./gradlew jmh</code>, e.g. <code>./gradlew jmh -Pjmh.args="-p libraryCount=500"</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProviderPhasesBenchmark {
+	@Param({ "SERVER", "CLIENT" })
+	public EnvType env;
+
+	@Param({ "10", "100" })
+	public int libraryCount;
+
+	@Param({ "50" })
+	public int libraryEntries;
+
+	@Param({ "1024" })
+	public int entrySize;
+
+	@Param({ "1000" })
+	public int gameClasses;
+
+	@Param({ "2048" })
+	public int gameClassSize;
+
+	/**
+	 * Whether the provider caches under the game directory are used; they stay warm across invocations.
+	 */
+	@Param({ "true", "false" })
+	public boolean cache;
+
+	private Path dir;
+	private Path gameDir;
+	private String[] args;
+	private List<Path> libraries;
+	private GameProvider initialized;
+	private CachingGameTransformer transformer;
+	private String entrypointOwner;
+	private byte[] entrypointClass;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("bta-provider-jmh");
+		gameDir = Files.createDirectories(dir.resolve("game"));
+		args = new String[] { "--gameDir", gameDir.toString() };
+
+		Path gameJar = SyntheticGame.writeGameJar(dir, env, gameClasses, gameClassSize);
+		libraries = SyntheticGame.writeLibraries(Files.createDirectories(dir.resolve("libraries")), libraryCount, libraryEntries, entrySize);
+
+		System.setProperty(SystemProperties.GAME_JAR_PATH, gameJar.toString());
+		System.setProperty(SystemProperties.UNIT_TEST, "true");
+
+		if (cache) {
+			System.clearProperty(ProviderCache.DISABLE_PROPERTY);
+		} else {
+			System.setProperty(ProviderCache.DISABLE_PROPERTY, "true");
+		}
+
+		entrypointOwner = entrypoint().replace('.', '/');
+		transformer = (CachingGameTransformer) newProvider().getEntrypointTransformer();
+
+		try (ZipFile zf = new ZipFile(gameJar.toFile()); InputStream is = zf.getInputStream(zf.getEntry(entrypointOwner + ".class"))) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int len;
+
+			while ((len = is.read(buffer)) >= 0) {
+				out.write(buffer, 0, len);
+			}
+
+			entrypointClass = out.toByteArray();
+		}
+
+		initialized = newProvider();
+		initialized.locateGame(launcher(), args);
+		initialized.initialize(launcher());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		SyntheticGame.delete(dir);
+	}
+
+	@Benchmark
+	public boolean locateGame() {
+		return newProvider().locateGame(launcher(), args);
+	}
+
+	/**
+	 * Includes {@link net.fabricmc.loader.impl.game.patch.GameTransformer#locateEntrypoints}; a provider can only be
+	 * initialized once, so this also pays for {@link GameProvider#locateGame}.
+	 */
+	@Benchmark
+	public GameProvider initialize() {
+		GameProvider provider = newProvider();
+		FabricLauncher launcher = launcher();
+		provider.locateGame(launcher, args);
+		provider.initialize(launcher);
+
+		return provider;
+	}
+
+	/**
+	 * Applies the provider's hooks to the entrypoint class bytes, without jar I/O or the cache.
+	 */
+	@Benchmark
+	public byte[] entrypointPatch() {
+		return transformer.patch(entrypointOwner, entrypointClass);
+	}
+
+	@Benchmark
+	public String[] getLaunchArguments() {
+		return initialized.getLaunchArguments(true);
+	}
+
+	private GameProvider newProvider() {
+		return env == EnvType.SERVER ? new NMSMinecraftServerGameProvider() : new NMCMinecraftGameProvider();
+	}
+
+	private String entrypoint() {
+		return env == EnvType.SERVER ? "net.minecraft.server.MinecraftServer" : "net.minecraft.client.Minecraft";
+	}
+
+	private FabricLauncher launcher() {
+		return new BenchLauncher(env, entrypoint(), libraries).create();
+	}
+}
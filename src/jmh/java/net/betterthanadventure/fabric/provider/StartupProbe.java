@@ -0,0 +1,56 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * Called by the synthetic server right after the injected <code>Hooks.startServer</code> call, in the JVM started by
+ * {@link StartupScaling}. Prints one {@value #PREFIX} line with the measurements and exits.
+ */
+public final class StartupProbe {
+	static final String INTERNAL_NAME = StartupProbe.class.getName().replace('.', '/');
+	static final String PREFIX = "STARTUP_PROBE";
+
+	private StartupProbe() {
+	}
+
+	public static void reached() {
+		long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+		long peakHeap = 0;
+
+		// per-pool peaks, an upper bound of the actual peak
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) peakHeap += pool.getPeakUsage().getUsed();
+		}
+
+		System.out.println(PREFIX + " " + uptime + " " + allocatedBytes() + " " + peakHeap);
+		System.out.flush();
+		Runtime.getRuntime().halt(0);
+	}
+
+	private static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) return -1;
+
+		try {
+			// Java 21+, includes threads that already terminated
+			Method total = com.sun.management.ThreadMXBean.class.getMethod("getTotalThreadAllocatedBytes");
+			long ret = (long) total.invoke(threads);
+			if (ret >= 0) return ret;
+		} catch (ReflectiveOperationException ignored) {
+		}
+
+		// live threads only
+
+		long ret = 0;
+
+		for (long allocated : ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threads.getAllThreadIds())) {
+			if (allocated > 0) ret += allocated;
+		}
+
+		return ret;
+	}
+}
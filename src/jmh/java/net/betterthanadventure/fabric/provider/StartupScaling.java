@@ -0,0 +1,150 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import net.fabricmc.api.EnvType;
+
+/**
+ * End-to-end startup benchmark of the server provider. For each mod count N it generates a synthetic BTA server jar,
+ * N mod jars and N library jars, then boots a fresh JVM through <code>KnotServer</code>, the real provider and
+ * fabric-loader until the injected <code>Hooks.startServer</code> call has run every mod's <code>main</code>
+ * entrypoint. {@link StartupProbe} then reports JVM uptime, allocated bytes and peak heap and ends the JVM. The first
+ * run per N starts without provider caches, later runs reuse them. Everything is generated locally, so the benchmark
+ * runs offline.
+ *
+ * <p>Run with <code>./gradlew startupScaling</code>, e.g.
+ * <code>./gradlew startupScaling -PstartupScaling.args="--counts 10,100,500 --runs 3"</code>. Options:
+ * <code>--counts</code>, <code>--runs</code>, <code>--game-classes</code>, <code>--mod-classes</code>,
+ * <code>--jvm-args</code> (comma separated, passed to the booted JVM) and <code>--keep</code> to keep the generated
+ * files.
+ */
+public final class StartupScaling {
+	static final String CLASSPATH_PROPERTY = "startupScaling.classpath";
+
+	private StartupScaling() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		int[] counts = { 10, 100, 500 };
+		int runs = 3;
+		int gameClasses = 2000;
+		int modClasses = 20;
+		List<String> jvmArgs = new ArrayList<>();
+		boolean keep = false;
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--counts":
+				counts = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+				break;
+			case "--runs":
+				runs = Integer.parseInt(args[++i]);
+				break;
+			case "--game-classes":
+				gameClasses = Integer.parseInt(args[++i]);
+				break;
+			case "--mod-classes":
+				modClasses = Integer.parseInt(args[++i]);
+				break;
+			case "--jvm-args":
+				jvmArgs.addAll(Arrays.asList(args[++i].split(",")));
+				break;
+			case "--keep":
+				keep = true;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+
+		String classPath = System.getProperty(CLASSPATH_PROPERTY);
+		if (classPath == null) throw new IllegalStateException(CLASSPATH_PROPERTY + " is not set, run through ./gradlew startupScaling");
+
+		Path root = Files.createTempDirectory("bta-startup-scaling");
+		System.out.printf(Locale.ROOT, "%6s %4s %10s %10s %12s %12s%n", "mods", "run", "hook ms", "wall ms", "alloc MB", "peak MB");
+
+		try {
+			for (int count : counts) {
+				Path dir = root.resolve("n" + count);
+				Files.createDirectories(dir.resolve("libs"));
+
+				Path gameJar = SyntheticGame.writeGameJar(dir, EnvType.SERVER, gameClasses, 2048);
+				SyntheticGame.writeMods(dir.resolve("mods"), count, modClasses, 1024);
+				List<Path> libraries = SyntheticGame.writeLibraries(dir.resolve("libs"), count, 50, 1024);
+
+				StringBuilder childClassPath = new StringBuilder(classPath);
+				for (Path library : libraries) childClassPath.append(File.pathSeparatorChar).append(library);
+
+				for (int run = 1; run <= runs; run++) {
+					Result result = boot(dir, gameJar, childClassPath.toString(), jvmArgs, run);
+					System.out.printf(Locale.ROOT, "%6d %4d %10d %10d %12.1f %12.1f%n", count, run, result.uptimeMillis, result.wallMillis,
+							result.allocatedBytes / 1048576.0, result.peakHeapBytes / 1048576.0);
+				}
+			}
+		} finally {
+			if (keep) {
+				System.out.println("Kept generated files in " + root);
+			} else {
+				SyntheticGame.delete(root);
+			}
+		}
+	}
+
+	private static Result boot(Path dir, Path gameJar, String classPath, List<String> jvmArgs, int run) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		command.addAll(jvmArgs);
+		command.add("-Dfabric.skipMcProvider=true");
+		command.add("-Dfabric.gameJarPath=" + gameJar);
+		command.add("-cp");
+		command.add(classPath);
+		command.add("net.fabricmc.loader.impl.launch.knot.KnotServer");
+		command.add("--gameDir");
+		command.add(dir.toString());
+
+		Path log = dir.resolve("run-" + run + ".log");
+		Process process = new ProcessBuilder(command).directory(dir.toFile()).redirectErrorStream(true).redirectOutput(log.toFile()).start();
+		long start = System.nanoTime();
+
+		if (!process.waitFor(10, TimeUnit.MINUTES)) {
+			process.destroyForcibly();
+			throw new IllegalStateException("Startup timed out, see " + log);
+		}
+
+		long wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		for (String line : Files.readAllLines(log, StandardCharsets.UTF_8)) {
+			if (!line.startsWith(StartupProbe.PREFIX + " ")) continue;
+
+			String[] parts = line.split(" ");
+			return new Result(Long.parseLong(parts[1]), wallMillis, Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+		}
+
+		throw new IllegalStateException("Startup didn't reach Hooks.startServer (exit code " + process.exitValue() + "), see " + log
+				+ (Files.exists(log) ? ":\n" + new String(Files.readAllBytes(log), StandardCharsets.UTF_8) : ""));
+	}
+
+	private static final class Result {
+		final long uptimeMillis;
+		final long wallMillis;
+		final long allocatedBytes;
+		final long peakHeapBytes;
+
+		Result(long uptimeMillis, long wallMillis, long allocatedBytes, long peakHeapBytes) {
+			this.uptimeMillis = uptimeMillis;
+			this.wallMillis = wallMillis;
+			this.allocatedBytes = allocatedBytes;
+			this.peakHeapBytes = peakHeapBytes;
+		}
+	}
+}
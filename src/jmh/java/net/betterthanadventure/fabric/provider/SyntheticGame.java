@@ -0,0 +1,270 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import net.fabricmc.api.EnvType;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Generates a fake BTA game jar and library jars shaped like the real ones, for benchmarking the providers.
+ */
+final class SyntheticGame {
+	static final String VERSION = "7.3_03";
+
+	private SyntheticGame() {
+	}
+
+	/**
+	 * Writes a game jar containing the entrypoint class for <code>env</code> plus <code>classCount</code> filler
+	 * classes of roughly <code>classSize</code> bytes each.
+	 */
+	static Path writeGameJar(Path dir, EnvType env, int classCount, int classSize) throws IOException {
+		Path jar = dir.resolve(env == EnvType.SERVER ? "bta-server.jar" : "bta-client.jar");
+
+		try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+			if (env == EnvType.SERVER) {
+				put(out, "net/minecraft/server/MinecraftServer.class", serverClass());
+			} else {
+				put(out, "net/minecraft/client/Minecraft.class", clientClass());
+			}
+
+			for (int i = 0; i < classCount; i++) {
+				put(out, "net/minecraft/core/Filler" + i + ".class", fillerClass("net/minecraft/core/Filler" + i, classSize));
+			}
+		}
+
+		return jar;
+	}
+
+	/**
+	 * Writes <code>count</code> library jars with <code>entries</code> random entries of <code>entrySize</code>
+	 * bytes each. Some of them contain the marker entries of a {@link LogLibrary}, the rest contain none.
+	 */
+	static List<Path> writeLibraries(Path dir, int count, int entries, int entrySize) throws IOException {
+		List<Path> ret = new ArrayList<>(count);
+		Random random = new Random(count);
+		LogLibrary[] libs = LogLibrary.values();
+
+		for (int i = 0; i < count; i++) {
+			Path jar = dir.resolve("library-" + i + ".jar");
+
+			try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+				for (int j = 0; j < entries; j++) {
+					byte[] data = new byte[entrySize];
+					random.nextBytes(data);
+					put(out, "com/example/lib" + i + "/Entry" + j + ".bin", data);
+				}
+
+				// spread the log libraries over the end of the classpath so every jar before them has to be probed
+				int lib = i - (count - libs.length);
+				if (lib >= 0) put(out, libs[lib].getPaths()[0], new byte[0]);
+			}
+
+			ret.add(jar);
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Writes <code>count</code> mod jars, each with a <code>main</code> entrypoint that loads <code>classCount</code>
+	 * filler classes of roughly <code>classSize</code> bytes.
+	 */
+	static List<Path> writeMods(Path dir, int count, int classCount, int classSize) throws IOException {
+		List<Path> ret = new ArrayList<>(count);
+		Files.createDirectories(dir);
+
+		for (int i = 0; i < count; i++) {
+			Path jar = dir.resolve("mod-" + i + ".jar");
+			String pkg = "com/example/mod" + i + "/";
+
+			try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+				put(out, "fabric.mod.json", ("{\"schemaVersion\": 1, \"id\": \"mod_" + i + "\", \"version\": \"1.0.0\", "
+						+ "\"entrypoints\": {\"main\": [\"" + pkg.replace('/', '.') + "Init\"]}}").getBytes(StandardCharsets.UTF_8));
+				put(out, pkg + "Init.class", modInitializerClass(pkg + "Init", pkg + "Filler", classCount));
+
+				for (int j = 0; j < classCount; j++) {
+					put(out, pkg + "Filler" + j + ".class", fillerClass(pkg + "Filler" + j, classSize));
+				}
+			}
+
+			ret.add(jar);
+		}
+
+		return ret;
+	}
+
+	private static void put(ZipOutputStream out, String name, byte[] data) throws IOException {
+		out.putNextEntry(new ZipEntry(name));
+		out.write(data);
+		out.closeEntry();
+	}
+
+	private static byte[] serverClass() {
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+		cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "net/minecraft/server/MinecraftServer", null, "java/lang/Object", null);
+		versionField(cw, "net/minecraft/server/MinecraftServer");
+		constructor(cw);
+
+		// main(String[]) runs new MinecraftServer().startServer()
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "main", "([Ljava/lang/String;)V", null, null);
+		mv.visitCode();
+		mv.visitTypeInsn(Opcodes.NEW, "net/minecraft/server/MinecraftServer");
+		mv.visitInsn(Opcodes.DUP);
+		mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "net/minecraft/server/MinecraftServer", "<init>", "()V", false);
+		mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "net/minecraft/server/MinecraftServer", "startServer", "()Z", false);
+		mv.visitInsn(Opcodes.POP);
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		mv = cw.visitMethod(Opcodes.ACC_PRIVATE, "getMinecraftDir", "()Ljava/io/File;", null, null);
+		mv.visitCode();
+		mv.visitTypeInsn(Opcodes.NEW, "java/io/File");
+		mv.visitInsn(Opcodes.DUP);
+		mv.visitLdcInsn(".");
+		mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/io/File", "<init>", "(Ljava/lang/String;)V", false);
+		mv.visitInsn(Opcodes.ARETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		// the provider injects Hooks.startServer at the head, the probe runs right after it
+		mv = cw.visitMethod(Opcodes.ACC_PRIVATE, "startServer", "()Z", null, null);
+		mv.visitCode();
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, StartupProbe.INTERNAL_NAME, "reached", "()V", false);
+		mv.visitInsn(Opcodes.ICONST_1);
+		mv.visitInsn(Opcodes.IRETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	private static byte[] clientClass() {
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+		cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "net/minecraft/client/Minecraft", null, "java/lang/Object", null);
+		versionField(cw, "net/minecraft/client/Minecraft");
+		constructor(cw);
+		mainMethod(cw);
+
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "getMinecraftDir", "()Ljava/io/File;", null, null);
+		mv.visitCode();
+		mv.visitInsn(Opcodes.ACONST_NULL);
+		mv.visitInsn(Opcodes.ARETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "startGame", "()V", null, null);
+		mv.visitCode();
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "run", "()V", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "net/minecraft/client/Minecraft", "startGame", "()V", false);
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	private static void versionField(ClassWriter cw, String owner) {
+		cw.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "VERSION", "Ljava/lang/String;", null, null).visitEnd();
+
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+		mv.visitCode();
+		mv.visitLdcInsn(VERSION);
+		mv.visitFieldInsn(Opcodes.PUTSTATIC, owner, "VERSION", "Ljava/lang/String;");
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	private static void constructor(ClassWriter cw) {
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	private static void mainMethod(ClassWriter cw) {
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "main", "([Ljava/lang/String;)V", null, null);
+		mv.visitCode();
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	private static byte[] modInitializerClass(String name, String fillerPrefix, int fillerCount) {
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+		cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", new String[] { "net/fabricmc/api/ModInitializer" });
+		constructor(cw);
+
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "onInitialize", "()V", null, null);
+		mv.visitCode();
+
+		for (int i = 0; i < fillerCount; i++) {
+			// a non-constant static field read initializes the class
+			mv.visitFieldInsn(Opcodes.GETSTATIC, fillerPrefix + i, "loaded", "Z");
+			mv.visitInsn(Opcodes.POP);
+		}
+
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	private static byte[] fillerClass(String name, int size) {
+		ClassWriter cw = new ClassWriter(0);
+		cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+		cw.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "loaded", "Z", null, null).visitEnd();
+
+		// pad with distinct string constants until the class reaches the requested size
+		for (int i = 0; size > 0; i++) {
+			String value = name + '#' + i;
+			cw.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "f" + i, "Ljava/lang/String;", null, value).visitEnd();
+			size -= value.length() + 16;
+		}
+
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	static void delete(Path dir) throws IOException {
+		if (!Files.exists(dir)) return;
+
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(path -> {
+				try {
+					Files.delete(path);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+/**
+ * Class data sharing support for server launches, enabled with <code>-Dfabric.btaProvider.cds=train</code> or
+ * <code>use</code>.
+ *
+ * <p>A JVM can't change its CDS flags once running, so the provider manages the files and the launcher script passes
+ * them on. A training run started with <code>-XX:+RecordDynamicDumpInfo</code> (JDK 17+) waits for the first seconds
+ * after launch to load the startup classes, then dumps a dynamic archive <code>&lt;key&gt;.jsa</code> through the
+ * <code>VM.cds</code> diagnostic command and writes <code>jvm.args</code>. Later launches can use that with <code>java @.fabric/bta-provider/cds/jvm.args</code>.
+ * The key covers the path, size and mtime of the game and log jars, which is also what the JVM checks before mapping
+ * an archive, and the Java version. Files for any other key are deleted on startup, so a changed jar never reuses a
+ * stale archive.
+ */
+final class CdsArchive {
+	static final String PROPERTY = "fabric.btaProvider.cds";
+	static final String TRAIN_SECONDS_PROPERTY = "fabric.btaProvider.cds.trainSeconds";
+	private static final String ARGS_FILE = "jvm.args";
+
+	private final Path dir;
+	private final String key;
+
+	private CdsArchive(Path dir, String key) {
+		this.dir = dir;
+		this.key = key;
+	}
+
+	static boolean isTraining() {
+		return "train".equals(System.getProperty(PROPERTY));
+	}
+
+	/**
+	 * @return the archive for the given jars, or <code>null</code> if CDS support is off
+	 */
+	static CdsArchive open(Path gameDir, Collection<Path> jars) {
+		if (System.getProperty(PROPERTY) == null) return null;
+
+		try {
+			Fingerprint fingerprint = new Fingerprint().add(ProviderCache.providerVersion()).add(System.getProperty("java.vm.version"));
+			for (Path jar : jars) fingerprint.addStat(jar);
+
+			return new CdsArchive(ProviderCache.resolve(gameDir, "cds"), fingerprint.finish().substring(0, 16));
+		} catch (IOException e) {
+			Log.warn(LogCategory.GAME_PROVIDER, "Failed to stat jars for CDS, disabling it", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Deletes archives for other keys and reports whether this JVM runs with the matching one.
+	 */
+	void validate() {
+		Path archive = dir.resolve(key + ".jsa");
+		String used = null;
+
+		for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			if (arg.startsWith("-XX:SharedArchiveFile=")) used = arg.substring("-XX:SharedArchiveFile=".length());
+		}
+
+		if (!Files.isDirectory(dir)) return;
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+
+				// class lists are left over from older provider versions
+				if (name.endsWith(".classlist") || name.endsWith(".jsa") && !name.startsWith(key + ".")) {
+					Log.info(LogCategory.GAME_PROVIDER, "Deleting stale CDS file %s", file);
+					Files.delete(file);
+				}
+			}
+
+			Path args = dir.resolve(ARGS_FILE);
+
+			if (Files.exists(args) && !new String(Files.readAllBytes(args), StandardCharsets.UTF_8).contains(archive.toString())) {
+				Files.delete(args);
+			}
+		} catch (IOException e) {
+			Log.warn(LogCategory.GAME_PROVIDER, "Failed to clean up CDS directory " + dir, e);
+		}
+
+		if (used == null) {
+			Log.debug(LogCategory.GAME_PROVIDER, "Not running with a CDS archive");
+		} else if (archive.toAbsolutePath().equals(Paths.get(used).toAbsolutePath())) {
+			Log.info(LogCategory.GAME_PROVIDER, "Running with CDS archive %s", used);
+		} else {
+			Log.warn(LogCategory.GAME_PROVIDER, "Running with CDS archive %s which does not match the current jars, run a new training launch", used);
+		}
+	}
+
+	/**
+	 * Dumps the archive once the configured window after launch has passed, on a daemon thread.
+	 */
+	void scheduleDump() {
+		if (!ManagementFactory.getRuntimeMXBean().getInputArguments().contains("-XX:+RecordDynamicDumpInfo")) {
+			Log.warn(LogCategory.GAME_PROVIDER, "CDS training needs -XX:+RecordDynamicDumpInfo (JDK 17+) to create an archive");
+			return;
+		}
+
+		long delay = Long.getLong(TRAIN_SECONDS_PROPERTY, 60) * 1000;
+
+		Thread thread = new Thread(() -> {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			dump();
+		}, "BTA provider CDS training");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void dump() {
+		Path archive = dir.resolve(key + ".jsa").toAbsolutePath();
+
+		try {
+			Files.createDirectories(dir);
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.invoke(new ObjectName("com.sun.management:type=DiagnosticCommand"), "vmCds",
+					new Object[] { new String[] { "dynamic_dump", archive.toString() } }, new String[] { String[].class.getName() });
+
+			ProviderCache.write(dir.resolve(ARGS_FILE), ("-XX:SharedArchiveFile=" + archive + "\n-Xshare:auto\n").getBytes(StandardCharsets.UTF_8));
+			Log.info(LogCategory.GAME_PROVIDER, "Wrote CDS archive %s, launch with @%s to use it", archive, dir.resolve(ARGS_FILE).toAbsolutePath());
+		} catch (Exception e) {
+			Log.warn(LogCategory.GAME_PROVIDER, "Failed to dump CDS archive", e);
+		}
+	}
+}
@@ -0,0 +1,261 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.ObjectName;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+/**
+ * Non-blocking console for the dedicated server, enabled with <code>-Dfabric.btaProvider.asyncConsole</code>.
+ *
+ * <p>{@link #install()} replaces {@link System#out} and {@link System#err} before the log handler is set up, so log4j's
+ * console appender and terminalconsole's fallback output pick up the replacements. Writes copy the bytes into a
+ * queue bounded by <code>fabric.btaProvider.asyncConsole.capacity</code> bytes (default 1 MiB) and return. A
+ * dedicated thread coalesces queued writes into batches of up to 64 KiB and writes them to the original file
+ * descriptors, so a slow SSH session or log pipe only delays that thread. When the queue is full, writes are dropped.
+ * <code>fabric.btaProvider.asyncConsole.maxLinesPerSecond</code> optionally limits the lines accepted per second.
+ * Dropped lines are counted, exposed through {@link ConsoleSinkMXBean} and summarized on the console once it catches
+ * up. JLine terminals write to the terminal directly and bypass this.
+ */
+final class ConsoleSink implements ConsoleSinkMXBean {
+	static final String PROPERTY = "fabric.btaProvider.asyncConsole";
+	static final String CAPACITY_PROPERTY = "fabric.btaProvider.asyncConsole.capacity";
+	static final String RATE_PROPERTY = "fabric.btaProvider.asyncConsole.maxLinesPerSecond";
+	private static final int BATCH_SIZE = 64 * 1024;
+
+	private final Queue<Chunk> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicLong queuedBytes = new AtomicLong();
+	private final long capacity;
+	private final long maxLinesPerSecond;
+	private final OutputStream out = new FileOutputStream(FileDescriptor.out);
+	private final OutputStream err = new FileOutputStream(FileDescriptor.err);
+	private final Thread writer;
+	private final AtomicLong writtenLines = new AtomicLong();
+	private final AtomicLong droppedLines = new AtomicLong();
+	private final AtomicLong rateLimitedLines = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong rateWindow = new AtomicLong();
+	private final AtomicLong rateCount = new AtomicLong();
+	private final byte[] batch = new byte[BATCH_SIZE];
+	private long reportedDropped;
+	private long reportedRateLimited;
+	private volatile boolean writerParked;
+
+	private ConsoleSink(long capacity, long maxLinesPerSecond) {
+		this.capacity = capacity;
+		this.maxLinesPerSecond = maxLinesPerSecond;
+
+		writer = new Thread(this::run, "BTA provider console writer");
+		writer.setDaemon(true);
+		writer.start();
+
+		Runtime.getRuntime().addShutdownHook(new Thread(this::drain, "BTA provider console flush"));
+	}
+
+	static boolean isEnabled() {
+		return System.getProperty(PROPERTY) != null;
+	}
+
+	static void install() {
+		ConsoleSink sink = new ConsoleSink(Long.getLong(CAPACITY_PROPERTY, 1024 * 1024), Long.getLong(RATE_PROPERTY, 0));
+
+		System.setOut(new PrintStream(sink.new SinkStream(false), true));
+		System.setErr(new PrintStream(sink.new SinkStream(true), true));
+
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(sink, new ObjectName("net.betterthanadventure:type=ConsoleSink"));
+		} catch (Exception e) {
+			Log.warn(LogCategory.GAME_PROVIDER, "Failed to register the console sink MXBean", e);
+		}
+	}
+
+	private void offer(boolean toErr, byte[] data, int off, int len) {
+		if (len <= 0) return;
+
+		int lines = countLines(data, off, len);
+
+		if (maxLinesPerSecond > 0 && !acquireRate(lines)) {
+			rateLimitedLines.addAndGet(lines);
+			return;
+		}
+
+		if (queuedBytes.addAndGet(len) > capacity) {
+			queuedBytes.addAndGet(-len);
+			droppedLines.addAndGet(lines);
+			return;
+		}
+
+		queue.add(new Chunk(toErr, Arrays.copyOfRange(data, off, off + len), lines));
+
+		if (writerParked) {
+			writerParked = false;
+			LockSupport.unpark(writer);
+		}
+	}
+
+	/**
+	 * Fixed one second windows, good enough to keep a log storm off a slow terminal.
+	 */
+	private boolean acquireRate(int lines) {
+		long second = System.nanoTime() / TimeUnit.SECONDS.toNanos(1);
+		long window = rateWindow.get();
+
+		if (window != second && rateWindow.compareAndSet(window, second)) {
+			rateCount.set(0);
+		}
+
+		return rateCount.addAndGet(lines) <= maxLinesPerSecond;
+	}
+
+	private void run() {
+		for (;;) {
+			if (!drain()) {
+				writerParked = true;
+
+				// re-check after publishing the flag so a concurrent offer can't be missed
+				if (queue.isEmpty()) LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+
+				writerParked = false;
+			}
+		}
+	}
+
+	/**
+	 * Synchronized so the shutdown flush can't interleave its output with the writer's.
+	 */
+	private synchronized boolean drain() {
+		int size = 0;
+		boolean batchErr = false;
+		boolean any = false;
+		Chunk chunk;
+
+		while ((chunk = queue.poll()) != null) {
+			any = true;
+			queuedBytes.addAndGet(-chunk.data.length);
+
+			// keep the order between stdout and stderr, and write chunks larger than a batch as they are
+			if (size > 0 && (chunk.err != batchErr || size + chunk.data.length > BATCH_SIZE)) {
+				write(batchErr, batch, size);
+				size = 0;
+			}
+
+			if (chunk.data.length > BATCH_SIZE) {
+				write(chunk.err, chunk.data, chunk.data.length);
+			} else {
+				System.arraycopy(chunk.data, 0, batch, size, chunk.data.length);
+				size += chunk.data.length;
+				batchErr = chunk.err;
+			}
+
+			writtenLines.addAndGet(chunk.lines);
+		}
+
+		if (size > 0) write(batchErr, batch, size);
+
+		long dropped = droppedLines.get();
+		long rateLimited = rateLimitedLines.get();
+
+		if (dropped != reportedDropped || rateLimited != reportedRateLimited) {
+			String notice = String.format("[console] skipped %d lines (queue full) and %d lines (rate limit)%n", dropped - reportedDropped, rateLimited - reportedRateLimited);
+			byte[] bytes = notice.getBytes(StandardCharsets.UTF_8);
+			write(false, bytes, bytes.length);
+			reportedDropped = dropped;
+			reportedRateLimited = rateLimited;
+		}
+
+		return any;
+	}
+
+	private void write(boolean toErr, byte[] data, int len) {
+		try {
+			(toErr ? err : out).write(data, 0, len);
+			batches.incrementAndGet();
+		} catch (IOException ignored) {
+			// nowhere left to report it
+		}
+	}
+
+	private static int countLines(byte[] data, int off, int len) {
+		int ret = 0;
+
+		for (int i = off; i < off + len; i++) {
+			if (data[i] == '\n') ret++;
+		}
+
+		return ret;
+	}
+
+	@Override
+	public long getQueuedBytes() {
+		return queuedBytes.get();
+	}
+
+	@Override
+	public long getCapacityBytes() {
+		return capacity;
+	}
+
+	@Override
+	public long getWrittenLines() {
+		return writtenLines.get();
+	}
+
+	@Override
+	public long getDroppedLines() {
+		return droppedLines.get();
+	}
+
+	@Override
+	public long getRateLimitedLines() {
+		return rateLimitedLines.get();
+	}
+
+	@Override
+	public long getBatchCount() {
+		return batches.get();
+	}
+
+	private final class SinkStream extends OutputStream {
+		private final boolean toErr;
+
+		SinkStream(boolean toErr) {
+			this.toErr = toErr;
+		}
+
+		@Override
+		public void write(int b) {
+			offer(toErr, new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			offer(toErr, b, off, len);
+		}
+	}
+
+	private static final class Chunk {
+		final boolean err;
+		final byte[] data;
+		final int lines;
+
+		Chunk(boolean err, byte[] data, int lines) {
+			this.err = err;
+			this.data = data;
+			this.lines = lines;
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package net.betterthanadventure.fabric.provider;
+
+/**
+ * Backpressure statistics of the non-blocking server console, registered as
+ * <code>net.betterthanadventure:type=ConsoleSink</code> when <code>-Dfabric.btaProvider.asyncConsole</code> is set.
+ * Line counts are totals since startup.
+ */
+public interface ConsoleSinkMXBean {
+	long getQueuedBytes();
+
+	long getCapacityBytes();
+
+	long getWrittenLines();
+
+	long getDroppedLines();
+
+	long getRateLimitedLines();
+
+	long getBatchCount();
+}
@@ -23,8 +23,6 @@ import java.lang.invoke.MethodType;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.function.Consumer;
-import java.util.function.Function;
 
 import net.fabricmc.api.EnvType;
 import net.fabricmc.loader.impl.FormattedException;
@@ -32,7 +30,6 @@ import net.fabricmc.loader.impl.game.GameProvider;
 import net.fabricmc.loader.impl.game.GameProviderHelper;
 import net.fabricmc.loader.impl.game.LibClassifier;
 import net.fabricmc.loader.impl.game.minecraft.Hooks;
-import net.fabricmc.loader.impl.game.patch.GamePatch;
 import net.fabricmc.loader.impl.game.patch.GameTransformer;
 import net.fabricmc.loader.impl.launch.FabricLauncher;
 import net.fabricmc.loader.impl.metadata.BuiltinModMetadata;
@@ -45,7 +42,6 @@ import net.fabricmc.loader.impl.util.log.LogHandler;
 import net.minecraft.client.Minecraft;
 import net.minecraft.server.MinecraftServer;
 import org.objectweb.asm.Opcodes;
-import org.objectweb.asm.tree.*;
 
 /**
  * Launches {@link MinecraftServer#main(String[])}
@@ -55,49 +51,43 @@ public class NMSMinecraftServerGameProvider implements GameProvider {
 	private Collection<Path> validParentClassPath;
 	private final List<Path> gameJars = new ArrayList<>();
 	private final Set<Path> logJars = new HashSet<>();
-
-	private final GameTransformer transformer = new GameTransformer(new GamePatch() {
-		@Override
-		public void process(FabricLauncher launcher, Function<String, ClassNode> classSource, Consumer<ClassNode> classEmitter) {
-			String entrypoint = launcher.getEntrypoint();
-			if (!entrypoint.startsWith("net.minecraft.")) {
-				return;
-			}
-
-			ClassNode mainClass = classSource.apply(entrypoint);
-			if (mainClass == null) {
-				throw new RuntimeException("Could not load main class " + entrypoint + "!");
-			}
-
-			for (MethodNode method : mainClass.methods) {
-				if (method.name.equals("startServer") && method.desc.equals("()Z")) {
-					Log.debug(LogCategory.GAME_PATCH, "Applying entrypoint hook to %s::%s", mainClass.name, method.name);
-
-					ListIterator<AbstractInsnNode> instructions = method.instructions.iterator();
-
-					// inject at the head of startServer()
-					instructions.add(new VarInsnNode(Opcodes.ALOAD, 0));
-					instructions.add(new MethodInsnNode(
-							Opcodes.INVOKESPECIAL,
-							"net/minecraft/server/MinecraftServer",
-							"getMinecraftDir",
-							"()Ljava/io/File;",
-							false
-					));
-					instructions.add(new VarInsnNode(Opcodes.ALOAD, 0));
-					instructions.add(new MethodInsnNode(
-							Opcodes.INVOKESTATIC,
-							Hooks.INTERNAL_NAME,
-							"startServer",
-							"(Ljava/io/File;Ljava/lang/Object;)V",
-							false
-					));
-					classEmitter.accept(mainClass);
-					break;
-				}
-			}
-		}
-	});
+	private final StartupTimings timings = new StartupTimings();
+	private JarPool jarPool = JarPool.NONE;
+	private DeferredLogHandler deferredLogHandler;
+	private String gameVersion;
+	private CdsArchive cds;
+
+	private final CachingGameTransformer transformer = new CachingGameTransformer(this::getLaunchDirectory, createHooks());
+
+	private static HookSpec[] createHooks() {
+		List<HookSpec> hooks = new ArrayList<>();
+		boolean parallel = ParallelHooks.isEnabled();
+
+		// inject at the head of startServer()
+		hooks.add(HookSpec.atHead(parallel ? "fabric-entrypoint-parallel" : "fabric-entrypoint", "net/minecraft/server/MinecraftServer", "startServer", "()Z", mv -> {
+			mv.visitVarInsn(Opcodes.ALOAD, 0);
+			mv.visitMethodInsn(
+					Opcodes.INVOKESPECIAL,
+					"net/minecraft/server/MinecraftServer",
+					"getMinecraftDir",
+					"()Ljava/io/File;",
+					false
+			);
+			mv.visitVarInsn(Opcodes.ALOAD, 0);
+			mv.visitMethodInsn(
+					Opcodes.INVOKESTATIC,
+					parallel ? ParallelHooks.INTERNAL_NAME : Hooks.INTERNAL_NAME,
+					"startServer",
+					"(Ljava/io/File;Ljava/lang/Object;)V",
+					false
+			);
+		}));
+
+		if (TickMetrics.isEnabled() || StallDetector.isEnabled()) Collections.addAll(hooks, TickMetrics.hooks("net/minecraft/server/MinecraftServer"));
+		if (SaveMetrics.isEnabled()) Collections.addAll(hooks, SaveMetrics.hooks("net/minecraft/server/MinecraftServer"));
+
+		return hooks.toArray(new HookSpec[0]);
+	}
 
 	/**
 	 * Still provides <code>minecraft</code> for backward compatibility.
@@ -115,12 +105,19 @@ public class NMSMinecraftServerGameProvider implements GameProvider {
 
 	@Override
 	public String getRawGameVersion() {
-		return MinecraftServer.VERSION;
+		if (gameVersion == null) {
+			gameVersion = GameVersionReader.read(getLaunchDirectory(), gameJars, getEntrypoint(), jarPool);
+
+			// not a plain string constant, fall back to initializing the class
+			if (gameVersion == null) gameVersion = MinecraftServer.VERSION;
+		}
+
+		return gameVersion;
 	}
 
 	@Override
 	public String getNormalizedGameVersion() {
-		return MinecraftServer.VERSION.replace("_", ".");
+		return getRawGameVersion().replace("_", ".");
 	}
 
 	@Override
@@ -131,7 +128,8 @@ public class NMSMinecraftServerGameProvider implements GameProvider {
 
 	@Override
 	public String getEntrypoint() {
-		return MinecraftServer.class.getName();
+		// not MinecraftServer.class.getName(), that would load the stub
+		return "net.minecraft.server.MinecraftServer";
 	}
 
 	@Override
@@ -160,6 +158,7 @@ public class NMSMinecraftServerGameProvider implements GameProvider {
 
 	@Override
 	public boolean locateGame(FabricLauncher launcher, String[] args) {
+		long start = timings.begin(StartupTimings.Phase.LOCATE_GAME);
 		EnvType envType = launcher.getEnvironmentType();
 		assert (envType == EnvType.SERVER);
 
@@ -167,17 +166,35 @@ public class NMSMinecraftServerGameProvider implements GameProvider {
 		arguments.parse(args);
 		processArgumentMap(arguments);
 
+		JarDeduplicator deduplicator = new JarDeduplicator();
+
 		Path envJar = GameProviderHelper.getEnvGameJar(envType);
-		if (envJar != null) gameJars.add(envJar);
+		if (envJar != null && deduplicator.accept(envJar, "game")) gameJars.add(envJar);
 
 		Path commonJar = GameProviderHelper.getCommonGameJar();
-		if (commonJar != null) gameJars.add(commonJar);
+		if (commonJar != null && deduplicator.accept(commonJar, "game")) gameJars.add(commonJar);
+
+		if (!gameJars.isEmpty() && MergedGameJar.isEnabled()) {
+			Path merged = MergedGameJar.merge(getLaunchDirectory(), gameJars);
+
+			if (merged != null) {
+				gameJars.clear();
+				gameJars.add(merged);
+			}
+		}
+
+		// shared by classification, the transformer and the version reader until launch
+		jarPool = JarPool.isEnabled() ? new JarPool(gameJars) : JarPool.NONE;
+		transformer.setJarPool(jarPool);
 
 		try {
-			LibClassifier<LogLibrary> classifier = new LibClassifier<>(LogLibrary.class, envType, this);
-			if (envJar != null) classifier.process(envJar);
-			if (commonJar != null) classifier.process(commonJar);
-			classifier.process(launcher.getClassPath());
+			long classifyStart = timings.begin(StartupTimings.Phase.CLASSIFY_LIBRARIES);
+			LibClassifier<LogLibrary> libClassifier = new LibClassifier<>(LogLibrary.class, envType, this);
+			LogLibraryClassifier classifier = new LogLibraryClassifier(envType, libClassifier.getSystemLibraries(), LibraryIndex.open(getLaunchDirectory(), jarPool));
+			classifier.process(gameJars);
+			classifier.process(deduplicator.filter(launcher.getClassPath(), "library"));
+			classifier.save();
+			timings.end(StartupTimings.Phase.CLASSIFY_LIBRARIES, classifyStart);
 
 			boolean log4jAvailable = classifier.has(LogLibrary.LOG4J_API) && classifier.has(LogLibrary.LOG4J_CORE);
 			boolean slf4jAvailable = classifier.has(LogLibrary.SLF4J_API) && classifier.has(LogLibrary.SLF4J_CORE);
@@ -192,7 +209,7 @@ public class NMSMinecraftServerGameProvider implements GameProvider {
 				}
 			}
 
-			validParentClassPath = classifier.getSystemLibraries();
+			validParentClassPath = libClassifier.getSystemLibraries();
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -204,6 +221,8 @@ public class NMSMinecraftServerGameProvider implements GameProvider {
 			}
 		} catch (Exception ignored) {
 		}
+
+		timings.end(StartupTimings.Phase.LOCATE_GAME, start);
 		return !gameJars.isEmpty();
 	}
 
@@ -235,6 +254,7 @@ public class NMSMinecraftServerGameProvider implements GameProvider {
 
 	@Override
 	public void initialize(FabricLauncher launcher) {
+		long start = timings.begin(StartupTimings.Phase.INITIALIZE);
 		launcher.setValidParentClassPath(validParentClassPath);
 
 		if (!logJars.isEmpty() && !Boolean.getBoolean(SystemProperties.UNIT_TEST)) {
@@ -247,29 +267,55 @@ public class NMSMinecraftServerGameProvider implements GameProvider {
 			}
 		}
 
+		// before the log handler, so log4j's console appender picks up the replaced streams
+		if (ConsoleSink.isEnabled()) ConsoleSink.install();
+
+		long logStart = timings.begin(StartupTimings.Phase.SETUP_LOG_HANDLER);
 		setupLogHandler(launcher);
-		if (!gameJars.isEmpty()) transformer.locateEntrypoints(launcher, gameJars);
+		timings.end(StartupTimings.Phase.SETUP_LOG_HANDLER, logStart);
+
+		Set<Path> cdsJars = new LinkedHashSet<>(gameJars);
+		cdsJars.addAll(logJars);
+		cds = CdsArchive.open(getLaunchDirectory(), cdsJars);
+
+		if (cds != null) cds.validate();
+
+		if (!gameJars.isEmpty()) {
+			long transformStart = timings.begin(StartupTimings.Phase.TRANSFORM_ENTRYPOINT);
+			transformer.locateEntrypoints(launcher, gameJars);
+			timings.end(StartupTimings.Phase.TRANSFORM_ENTRYPOINT, transformStart);
+		}
+
+		timings.end(StartupTimings.Phase.INITIALIZE, start);
 	}
 
 	private void setupLogHandler(FabricLauncher launcher) {
 		System.setProperty("log4j2.formatMsgNoLookups", "true"); // lookups are not used by mc and cause issues with older log4j2 versions
 
-		try {
-			final String logHandlerClsName = "net.fabricmc.loader.impl.game.minecraft.Slf4jLogHandler";
+		if (System.getProperty(DeferredLogHandler.PROPERTY) != null) {
+			deferredLogHandler = DeferredLogHandler.start(() -> createLogHandler(launcher), launcher.getTargetClassLoader());
+			Log.init(deferredLogHandler);
+			return;
+		}
 
+		try {
 			ClassLoader prevCl = Thread.currentThread().getContextClassLoader();
-			Class<?> logHandlerCls;
 
 			Thread.currentThread().setContextClassLoader(launcher.getTargetClassLoader());
-			logHandlerCls = launcher.loadIntoTarget(logHandlerClsName);
-
-			Log.init((LogHandler) logHandlerCls.getConstructor().newInstance());
+			Log.init(createLogHandler(launcher));
 			Thread.currentThread().setContextClassLoader(prevCl);
 		} catch (ReflectiveOperationException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
+	private static LogHandler createLogHandler(FabricLauncher launcher) throws ReflectiveOperationException {
+		final String logHandlerClsName = "net.fabricmc.loader.impl.game.minecraft.Slf4jLogHandler";
+		Class<?> logHandlerCls = launcher.loadIntoTarget(logHandlerClsName);
+
+		return AsyncLogHandler.wrap((LogHandler) logHandlerCls.getConstructor().newInstance(), launcher.getTargetClassLoader());
+	}
+
 	@Override
 	public Arguments getArguments() {
 		return arguments;
@@ -308,6 +354,9 @@ public class NMSMinecraftServerGameProvider implements GameProvider {
 
 	@Override
 	public void unlockClassPath(FabricLauncher launcher) {
+		long start = timings.begin(StartupTimings.Phase.UNLOCK_CLASS_PATH);
+		if (deferredLogHandler != null) deferredLogHandler.await();
+
 		for (Path gameJar : gameJars) {
 			if (logJars.contains(gameJar)) {
 				launcher.setAllowedPrefixes(gameJar);
@@ -315,10 +364,35 @@ public class NMSMinecraftServerGameProvider implements GameProvider {
 				launcher.addToClassPath(gameJar);
 			}
 		}
+
+		timings.end(StartupTimings.Phase.UNLOCK_CLASS_PATH, start);
+	}
+
+	/**
+	 * Drops what only the launch needed once the entrypoint class is defined, which was the last use of the pooled
+	 * jars. The game jars back the builtin mod, the arguments back {@link #getLaunchArguments}
+	 * and the transformer still serves hooked classes that aren't defined yet, so those stay.
+	 */
+	private void releaseStartupData() {
+		transformer.release();
+		timings.released("jarPool", jarPool.estimateBytes());
+		jarPool.close();
+		jarPool = JarPool.NONE;
+		logJars.clear();
+		validParentClassPath = null;
+		deferredLogHandler = null;
+		timings.retained(transformer.estimateBytes() + StartupTimings.estimatePaths(gameJars) + (arguments != null ? StartupTimings.estimateStrings(arguments.toArray()) : 0));
 	}
 
 	@Override
 	public void launch(ClassLoader loader) {
+		long start = timings.begin(StartupTimings.Phase.LAUNCH);
+		if (TickMetrics.isEnabled()) TickMetrics.register();
+		if (StallDetector.isEnabled()) StallDetector.start(getLaunchDirectory());
+		if (SaveMetrics.isEnabled()) SaveMetrics.start(getLaunchDirectory());
+		if (cds != null && CdsArchive.isTraining()) cds.scheduleDump();
+		if (ClassLoadProfile.isEnabled()) ClassLoadProfile.start(getLaunchDirectory(), gameJars, transformer, loader);
+
 		String targetClass = getEntrypoint();
 		MethodHandle invoker;
 
@@ -326,13 +400,26 @@ public class NMSMinecraftServerGameProvider implements GameProvider {
 			Class<?> c = loader.loadClass(targetClass);
 			invoker = MethodHandles.lookup().findStatic(c, "main", MethodType.methodType(void.class, String[].class));
 		} catch (NoSuchMethodException | IllegalAccessException | ClassNotFoundException e) {
+			reportTimings(start);
 			throw FormattedException.ofLocalized("exception.minecraft.invokeFailure", e);
 		}
 
+		releaseStartupData();
+		reportTimings(start);
+
 		try {
 			invoker.invokeExact(arguments.toArray());
 		} catch (Throwable t) {
 			throw FormattedException.ofLocalized("exception.minecraft.generic", t);
 		}
 	}
+
+	/**
+	 * Ends the launch phase and writes the report before <code>main</code> runs, which may not return until the game
+	 * exits. Mod initialization happens inside <code>main</code>, so the launch phase doesn't cover it.
+	 */
+	private void reportTimings(long launchStart) {
+		timings.end(StartupTimings.Phase.LAUNCH, launchStart);
+		timings.report(getLaunchDirectory(), getClass().getSimpleName(), getRawGameVersion());
+	}
 }
@@ -0,0 +1,330 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.management.ObjectName;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Opt-in world save timing, enabled with <code>-Dfabric.btaProvider.saveMetrics</code>.
+ *
+ * <p>The entrypoint transformer calls {@link #saveStart()} at the head of the save method, {@link #saveEnd()}
+ * before each of its returns and {@link #saveAborted()} when it throws. The save method defaults to <code>MinecraftServer.saveServerWorld()V</code> and can be
+ * changed with <code>-Dfabric.btaProvider.saveMetrics.method=[owner.]name(desc)</code>, e.g. to the world's autosave
+ * path. The owner must be in the game jars; the transformer warns if it isn't. A save that throws is not recorded,
+ * and a save started while another one runs is timed as part of it.
+ *
+ * <p>Per save, the bytes the saving thread passed to <code>write</code> are taken from
+ * <code>/proc/thread-self/io</code> (Linux only), and the region files whose modification time falls within the save
+ * are counted off-thread, in the <code>region</code> directories up to three levels below the game directory. Durations
+ * go to {@link LogHistogram}s: one since startup for the MXBean, one for the periodic log line, which is written every
+ * <code>fabric.btaProvider.saveMetrics.logSeconds</code> (default 300, 0 disables it).
+ *
+ * <p>The game classes resolve this class through the parent of Knot's class loader like they do for
+ * {@link net.fabricmc.loader.impl.game.minecraft.Hooks}, so they share its state with the provider.
+ */
+public final class SaveMetrics implements SaveMetricsMXBean {
+	static final String PROPERTY = "fabric.btaProvider.saveMetrics";
+	static final String METHOD_PROPERTY = "fabric.btaProvider.saveMetrics.method";
+	static final String LOG_SECONDS_PROPERTY = "fabric.btaProvider.saveMetrics.logSeconds";
+	private static final String DEFAULT_METHOD = "saveServerWorld()V";
+	private static final String INTERNAL_NAME = SaveMetrics.class.getName().replace('.', '/');
+	private static final Path THREAD_IO = Paths.get("/proc/thread-self/io");
+	/** file timestamps come from a coarse kernel clock that may lag {@link System#currentTimeMillis()} slightly. */
+	private static final long MTIME_SLACK_MILLIS = 10;
+
+	static final SaveMetrics INSTANCE = new SaveMetrics();
+
+	private final LogHistogram saves = new LogHistogram();
+	private final LogHistogram window = new LogHistogram();
+	private final AtomicLong bytesWritten = new AtomicLong();
+	private final AtomicLong windowBytesWritten = new AtomicLong();
+	private final AtomicLong regionFilesFlushed = new AtomicLong();
+	private final AtomicLong windowRegionFilesFlushed = new AtomicLong();
+	private final boolean ioAvailable = Files.isReadable(THREAD_IO);
+	private final AtomicReference<Thread> saveThread = new AtomicReference<>();
+	private long startWchar;
+	private long startMillis;
+	private volatile long saveStartNanos;
+	private volatile long lastSaveNanos;
+	private volatile long lastSaveBytes = -1;
+	private volatile long lastSaveRegions = -1;
+	private volatile long lastSaveEndMillis;
+	private volatile ExecutorService regionCounter;
+	private Path gameDir;
+	private List<Path> regionDirs = Collections.emptyList();
+
+	private SaveMetrics() { }
+
+	static boolean isEnabled() {
+		return System.getProperty(PROPERTY) != null;
+	}
+
+	/**
+	 * @return the HEAD, RETURN and THROW hooks on the configured save method
+	 */
+	static HookSpec[] hooks(String defaultOwner) {
+		String method = System.getProperty(METHOD_PROPERTY, DEFAULT_METHOD);
+		int descStart = method.indexOf('(');
+
+		if (descStart <= 0) {
+			throw new IllegalArgumentException("Invalid " + METHOD_PROPERTY + " '" + method + "', expected [owner.]name(desc)");
+		}
+
+		int nameStart = method.lastIndexOf('.', descStart) + 1;
+		String owner = nameStart > 0 ? method.substring(0, nameStart - 1).replace('.', '/') : defaultOwner;
+		String name = method.substring(nameStart, descStart);
+		String desc = method.substring(descStart);
+
+		return new HookSpec[] {
+				HookSpec.atHead("save-start", owner, name, desc, mv -> mv.visitMethodInsn(Opcodes.INVOKESTATIC, INTERNAL_NAME, "saveStart", "()V", false)),
+				HookSpec.beforeReturn("save-end", owner, name, desc, mv -> mv.visitMethodInsn(Opcodes.INVOKESTATIC, INTERNAL_NAME, "saveEnd", "()V", false)),
+				HookSpec.onThrow("save-abort", owner, name, desc, mv -> mv.visitMethodInsn(Opcodes.INVOKESTATIC, INTERNAL_NAME, "saveAborted", "()V", false))
+		};
+	}
+
+	/**
+	 * Registers the MXBean and starts the region file counter and the periodic log line.
+	 */
+	static void start(Path gameDir) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName("net.betterthanadventure:type=SaveMetrics"));
+		} catch (Exception e) {
+			Log.warn(LogCategory.GAME_PROVIDER, "Failed to register the save metrics MXBean", e);
+		}
+
+		if (!INSTANCE.ioAvailable) Log.debug(LogCategory.GAME_PROVIDER, "%s is not readable, not counting bytes written by saves", THREAD_IO);
+
+		INSTANCE.gameDir = gameDir.toAbsolutePath().normalize();
+		INSTANCE.regionCounter = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "Save metrics region counter");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		long logMillis = TimeUnit.SECONDS.toMillis(Long.getLong(LOG_SECONDS_PROPERTY, 300));
+		if (logMillis <= 0) return;
+
+		Thread thread = new Thread(() -> {
+			try {
+				for (;;) {
+					Thread.sleep(logMillis);
+					INSTANCE.logWindow();
+				}
+			} catch (InterruptedException ignored) {
+				// exit
+			}
+		}, "Save metrics");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @return whether a save is running, so a long tick can be attributed to it
+	 */
+	boolean isSaving() {
+		return saveStartNanos != 0;
+	}
+
+	public static void saveStart() {
+		SaveMetrics metrics = INSTANCE;
+		if (!metrics.saveThread.compareAndSet(null, Thread.currentThread())) return;
+
+		metrics.startWchar = metrics.ioAvailable ? readWchar() : -1;
+		metrics.startMillis = System.currentTimeMillis();
+		metrics.saveStartNanos = System.nanoTime();
+	}
+
+	public static void saveEnd() {
+		SaveMetrics metrics = INSTANCE;
+		if (metrics.saveThread.get() != Thread.currentThread()) return;
+
+		long elapsed = System.nanoTime() - metrics.saveStartNanos;
+		long endWchar = metrics.startWchar >= 0 ? readWchar() : -1;
+		long written = endWchar >= 0 ? endWchar - metrics.startWchar : -1;
+		long startMillis = metrics.startMillis;
+		long endMillis = System.currentTimeMillis();
+
+		metrics.saveStartNanos = 0;
+		metrics.saveThread.set(null);
+		metrics.record(elapsed, written, startMillis, endMillis);
+	}
+
+	public static void saveAborted() {
+		SaveMetrics metrics = INSTANCE;
+		if (metrics.saveThread.get() != Thread.currentThread()) return;
+
+		metrics.saveStartNanos = 0;
+		metrics.saveThread.set(null);
+	}
+
+	private void record(long elapsed, long written, long startMillis, long endMillis) {
+		saves.record(elapsed);
+		window.record(elapsed);
+
+		if (written >= 0) {
+			bytesWritten.addAndGet(written);
+			windowBytesWritten.addAndGet(written);
+		}
+
+		lastSaveNanos = elapsed;
+		lastSaveBytes = written;
+		lastSaveRegions = -1;
+		lastSaveEndMillis = endMillis;
+
+		ExecutorService counter = regionCounter;
+		if (counter != null) counter.execute(() -> countRegionFiles(startMillis, endMillis, written));
+	}
+
+	/**
+	 * Called on the counter thread only.
+	 */
+	private void countRegionFiles(long startMillis, long endMillis, long written) {
+		if (regionDirs.isEmpty()) regionDirs = findRegionDirs(gameDir);
+
+		long count = 0;
+
+		for (Path dir : regionDirs) {
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.mc{r,a}")) {
+				for (Path file : files) {
+					long modified = Files.getLastModifiedTime(file).toMillis();
+					if (modified >= startMillis - MTIME_SLACK_MILLIS && modified <= endMillis + MTIME_SLACK_MILLIS) count++;
+				}
+			} catch (IOException e) {
+				Log.debug(LogCategory.GAME_PROVIDER, "Failed to list region files in %s: %s", dir, e);
+			}
+		}
+
+		regionFilesFlushed.addAndGet(count);
+		windowRegionFilesFlushed.addAndGet(count);
+		if (lastSaveEndMillis == endMillis) lastSaveRegions = count;
+
+		Log.debug(LogCategory.GAME_PROVIDER, "World save took %d ms, wrote %d bytes, flushed %d region files",
+				endMillis - startMillis, written, count);
+	}
+
+	private static List<Path> findRegionDirs(Path gameDir) {
+		try (Stream<Path> dirs = Files.find(gameDir, 3, (path, attributes) -> attributes.isDirectory()
+				&& path.getFileName() != null && path.getFileName().toString().equals("region"))) {
+			return dirs.collect(Collectors.toList());
+		} catch (IOException | RuntimeException e) {
+			Log.debug(LogCategory.GAME_PROVIDER, "Failed to find region directories in %s: %s", gameDir, e);
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * @return the calling thread's <code>wchar</code> counter, or -1 if it can't be read
+	 */
+	private static long readWchar() {
+		try {
+			String io = new String(Files.readAllBytes(THREAD_IO), StandardCharsets.US_ASCII);
+			int start = io.indexOf("wchar:");
+			if (start < 0) return -1;
+
+			start += "wchar:".length();
+			int end = io.indexOf('\n', start);
+
+			return Long.parseLong(io.substring(start, end < 0 ? io.length() : end).trim());
+		} catch (IOException | NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private void logWindow() {
+		long count = window.getCount();
+		if (count == 0) return;
+
+		Log.info(LogCategory.GAME_PROVIDER, "World saves: %d, mean %.1f ms, p50 %.1f ms, p99 %.1f ms, max %.1f ms, %s written, %d region files flushed",
+				count, window.getMean() / 1e6, window.getQuantile(0.5) / 1e6, window.getQuantile(0.99) / 1e6,
+				window.getMax() / 1e6, ioAvailable ? String.format("%.1f MiB", windowBytesWritten.get() / 1048576.0) : "unknown",
+				windowRegionFilesFlushed.get());
+
+		window.reset();
+		windowBytesWritten.set(0);
+		windowRegionFilesFlushed.set(0);
+	}
+
+	@Override
+	public long getSaveCount() {
+		return saves.getCount();
+	}
+
+	@Override
+	public double getMeanSaveMillis() {
+		return saves.getMean() / 1e6;
+	}
+
+	@Override
+	public double getP50SaveMillis() {
+		return saves.getQuantile(0.5) / 1e6;
+	}
+
+	@Override
+	public double getP99SaveMillis() {
+		return saves.getQuantile(0.99) / 1e6;
+	}
+
+	@Override
+	public double getMaxSaveMillis() {
+		return saves.getMax() / 1e6;
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return ioAvailable ? bytesWritten.get() : -1;
+	}
+
+	@Override
+	public long getRegionFilesFlushed() {
+		return regionFilesFlushed.get();
+	}
+
+	@Override
+	public long getLastSaveEndMillis() {
+		return lastSaveEndMillis;
+	}
+
+	@Override
+	public double getLastSaveMillis() {
+		return lastSaveNanos / 1e6;
+	}
+
+	@Override
+	public long getLastSaveBytesWritten() {
+		return lastSaveBytes;
+	}
+
+	@Override
+	public long getLastSaveRegionFilesFlushed() {
+		return lastSaveRegions;
+	}
+
+	@Override
+	public void reset() {
+		saves.reset();
+		bytesWritten.set(0);
+		regionFilesFlushed.set(0);
+		window.reset();
+		windowBytesWritten.set(0);
+		windowRegionFilesFlushed.set(0);
+	}
+}
@@ -0,0 +1,36 @@
+package net.betterthanadventure.fabric.provider;
+
+/**
+ * World save times and I/O, registered as <code>net.betterthanadventure:type=SaveMetrics</code> when
+ * <code>-Dfabric.btaProvider.saveMetrics</code> is set. Values cover the saves since startup or the last
+ * {@link #reset()}. Byte counts are -1 where <code>/proc/thread-self/io</code> isn't available, the last save's region
+ * file count is -1 while it is being counted.
+ */
+public interface SaveMetricsMXBean {
+	long getSaveCount();
+
+	double getMeanSaveMillis();
+
+	double getP50SaveMillis();
+
+	double getP99SaveMillis();
+
+	double getMaxSaveMillis();
+
+	long getBytesWritten();
+
+	long getRegionFilesFlushed();
+
+	/**
+	 * @return wall clock time the last save ended at, in milliseconds since the epoch, or 0 before the first save
+	 */
+	long getLastSaveEndMillis();
+
+	double getLastSaveMillis();
+
+	long getLastSaveBytesWritten();
+
+	long getLastSaveRegionFilesFlushed();
+
+	void reset();
+}
@@ -0,0 +1,160 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+/**
+ * Watchdog for long server ticks, enabled with <code>-Dfabric.btaProvider.stallDetector=&lt;threshold ms&gt;</code>
+ * (any non-numeric value means 1000).
+ *
+ * <p>The watchdog thread checks the start time {@link TickMetrics} keeps for the current tick a few times per threshold,
+ * which is all it does while ticks are fast. Once a tick runs past the threshold, it samples the tick thread's stack
+ * every <code>fabric.btaProvider.stallDetector.sampleMillis</code> (default 10) until that tick ends. The samples are
+ * written as collapsed stacks, one <code>frame;frame;... count</code> line per distinct stack with the root first, to
+ * <code>.fabric/bta-provider/stalls</code>, ready for flamegraph.pl or speedscope. Only the newest
+ * {@value #MAX_FILES} files are kept. With {@link SaveMetrics} enabled, the log line notes stalls that overlapped a
+ * world save.
+ */
+final class StallDetector {
+	static final String PROPERTY = "fabric.btaProvider.stallDetector";
+	static final String SAMPLE_MILLIS_PROPERTY = "fabric.btaProvider.stallDetector.sampleMillis";
+	private static final int MAX_FILES = 20;
+
+	private final Path dir;
+	private final long thresholdNanos;
+	private final long pollMillis;
+	private final long sampleMillis;
+
+	private StallDetector(Path dir, long thresholdMillis, long sampleMillis) {
+		this.dir = dir;
+		this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+		this.pollMillis = Math.max(10, Math.min(thresholdMillis / 4, 250));
+		this.sampleMillis = sampleMillis;
+	}
+
+	static boolean isEnabled() {
+		return System.getProperty(PROPERTY) != null;
+	}
+
+	static void start(Path gameDir) {
+		long thresholdMillis = 1000;
+
+		try {
+			thresholdMillis = Math.max(1, Long.parseLong(System.getProperty(PROPERTY)));
+		} catch (NumberFormatException ignored) {
+		}
+
+		StallDetector detector = new StallDetector(ProviderCache.resolve(gameDir, "stalls"), thresholdMillis,
+				Math.max(1, Long.getLong(SAMPLE_MILLIS_PROPERTY, 10)));
+		Thread thread = new Thread(detector::watch, "Tick stall detector");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void watch() {
+		TickMetrics metrics = TickMetrics.INSTANCE;
+
+		try {
+			for (;;) {
+				Thread.sleep(pollMillis);
+
+				long start = metrics.getTickStartNanos();
+				Thread tickThread = metrics.getTickThread();
+
+				if (start != 0 && tickThread != null && System.nanoTime() - start > thresholdNanos) {
+					sample(metrics, tickThread, start);
+				}
+			}
+		} catch (InterruptedException ignored) {
+			// exit
+		}
+	}
+
+	private void sample(TickMetrics metrics, Thread tickThread, long start) throws InterruptedException {
+		Map<String, Integer> stacks = new HashMap<>();
+		int samples = 0;
+		boolean saving = false;
+
+		while (metrics.getTickStartNanos() == start) {
+			StackTraceElement[] trace = tickThread.getStackTrace();
+			if (metrics.getTickStartNanos() != start) break; // tick ended while the stack was taken
+
+			stacks.merge(collapse(trace), 1, Integer::sum);
+			samples++;
+			saving |= SaveMetrics.INSTANCE.isSaving();
+			Thread.sleep(sampleMillis);
+		}
+
+		if (samples == 0) return;
+
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		String during = saving ? " during a world save" : "";
+		Path file = dir.resolve("stall-" + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date()) + "-" + elapsedMillis + "ms.txt");
+
+		try {
+			write(file, stacks);
+			Log.warn(LogCategory.GAME_PROVIDER, "Server tick took %d ms%s, wrote %d stack samples to %s", elapsedMillis, during, samples, file);
+		} catch (IOException e) {
+			Log.warn(LogCategory.GAME_PROVIDER, "Server tick took " + elapsedMillis + " ms" + during + ", failed to write stack samples", e);
+		}
+	}
+
+	private static String collapse(StackTraceElement[] trace) {
+		StringBuilder sb = new StringBuilder();
+
+		for (int i = trace.length - 1; i >= 0; i--) {
+			if (sb.length() > 0) sb.append(';');
+			sb.append(trace[i].getClassName()).append('.').append(trace[i].getMethodName());
+		}
+
+		return sb.toString();
+	}
+
+	private void write(Path file, Map<String, Integer> stacks) throws IOException {
+		List<Map.Entry<String, Integer>> entries = new ArrayList<>(stacks.entrySet());
+		entries.sort((a, b) -> {
+			int cmp = Integer.compare(b.getValue(), a.getValue());
+			return cmp != 0 ? cmp : a.getKey().compareTo(b.getKey());
+		});
+
+		StringBuilder sb = new StringBuilder();
+
+		for (Map.Entry<String, Integer> entry : entries) {
+			sb.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+		}
+
+		ProviderCache.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+		prune();
+	}
+
+	private void prune() throws IOException {
+		List<Path> files = new ArrayList<>();
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "stall-*.txt")) {
+			for (Path path : stream) files.add(path);
+		}
+
+		if (files.size() <= MAX_FILES) return;
+
+		// names sort by time
+		Collections.sort(files);
+
+		for (Path path : files.subList(0, files.size() - MAX_FILES)) {
+			Files.deleteIfExists(path);
+		}
+	}
+}
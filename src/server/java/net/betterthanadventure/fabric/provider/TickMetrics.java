@@ -0,0 +1,152 @@
+package net.betterthanadventure.fabric.provider;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Opt-in server tick timing, enabled with <code>-Dfabric.btaProvider.tickMetrics</code>.
+ *
+ * <p>The entrypoint transformer calls {@link #tickStart()} at the head of the tick method, {@link #tickEnd()}
+ * before each of its returns and {@link #tickAborted()} when it throws. The tick method defaults to
+ * <code>doTick()V</code> and can be changed with <code>-Dfabric.btaProvider.tickMetrics.method=name(desc)</code>. A
+ * tick that throws is not recorded. The calls only read the clock and update a {@link LogHistogram}, so the overhead
+ * is a few atomic increments per tick.
+ *
+ * <p>The hooks are also installed for {@link StallDetector}, which only needs the start of the current tick.
+ *
+ * <p>The game classes resolve this class through the parent of Knot's class loader like they do for
+ * {@link net.fabricmc.loader.impl.game.minecraft.Hooks}, so they share its state with the provider.
+ */
+public final class TickMetrics implements TickMetricsMXBean {
+	static final String PROPERTY = "fabric.btaProvider.tickMetrics";
+	static final String METHOD_PROPERTY = "fabric.btaProvider.tickMetrics.method";
+	static final String SLOW_MILLIS_PROPERTY = "fabric.btaProvider.tickMetrics.slowMillis";
+	private static final String DEFAULT_METHOD = "doTick()V";
+	private static final String INTERNAL_NAME = TickMetrics.class.getName().replace('.', '/');
+
+	static final TickMetrics INSTANCE = new TickMetrics();
+
+	private final LogHistogram ticks = new LogHistogram();
+	private final AtomicLong slowTicks = new AtomicLong();
+	private final long slowTickNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong(SLOW_MILLIS_PROPERTY, 50));
+	private volatile long tickStartNanos;
+	private volatile Thread tickThread;
+
+	private TickMetrics() { }
+
+	static boolean isEnabled() {
+		return System.getProperty(PROPERTY) != null;
+	}
+
+	/**
+	 * @return the HEAD, RETURN and THROW hooks on the configured tick method of <code>MinecraftServer</code>
+	 */
+	static HookSpec[] hooks(String owner) {
+		String method = System.getProperty(METHOD_PROPERTY, DEFAULT_METHOD);
+		int descStart = method.indexOf('(');
+
+		if (descStart <= 0) {
+			throw new IllegalArgumentException("Invalid " + METHOD_PROPERTY + " '" + method + "', expected name(desc)");
+		}
+
+		String name = method.substring(0, descStart);
+		String desc = method.substring(descStart);
+
+		return new HookSpec[] {
+				HookSpec.atHead("tick-start", owner, name, desc, mv -> mv.visitMethodInsn(Opcodes.INVOKESTATIC, INTERNAL_NAME, "tickStart", "()V", false)),
+				HookSpec.beforeReturn("tick-end", owner, name, desc, mv -> mv.visitMethodInsn(Opcodes.INVOKESTATIC, INTERNAL_NAME, "tickEnd", "()V", false)),
+				HookSpec.onThrow("tick-aborted", owner, name, desc, mv -> mv.visitMethodInsn(Opcodes.INVOKESTATIC, INTERNAL_NAME, "tickAborted", "()V", false))
+		};
+	}
+
+	static void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName("net.betterthanadventure:type=TickMetrics"));
+		} catch (Exception e) {
+			Log.warn(LogCategory.GAME_PROVIDER, "Failed to register the tick metrics MXBean", e);
+		}
+	}
+
+	public static void tickStart() {
+		TickMetrics metrics = INSTANCE;
+		if (metrics.tickThread == null) metrics.tickThread = Thread.currentThread();
+		metrics.tickStartNanos = System.nanoTime();
+	}
+
+	public static void tickEnd() {
+		TickMetrics metrics = INSTANCE;
+		long start = metrics.tickStartNanos;
+		if (start == 0) return;
+
+		long elapsed = System.nanoTime() - start;
+		metrics.tickStartNanos = 0;
+		metrics.ticks.record(elapsed);
+		if (elapsed > metrics.slowTickNanos) metrics.slowTicks.incrementAndGet();
+	}
+
+	public static void tickAborted() {
+		INSTANCE.tickStartNanos = 0;
+	}
+
+	/**
+	 * @return the {@link System#nanoTime()} the current tick started at, or 0 between ticks
+	 */
+	long getTickStartNanos() {
+		return tickStartNanos;
+	}
+
+	/**
+	 * @return the thread running ticks, or <code>null</code> before the first tick
+	 */
+	Thread getTickThread() {
+		return tickThread;
+	}
+
+	@Override
+	public long getTickCount() {
+		return ticks.getCount();
+	}
+
+	@Override
+	public double getMeanMspt() {
+		return ticks.getMean() / 1e6;
+	}
+
+	@Override
+	public double getP50Mspt() {
+		return ticks.getQuantile(0.5) / 1e6;
+	}
+
+	@Override
+	public double getP99Mspt() {
+		return ticks.getQuantile(0.99) / 1e6;
+	}
+
+	@Override
+	public double getMaxMspt() {
+		return ticks.getMax() / 1e6;
+	}
+
+	@Override
+	public long getSlowTickCount() {
+		return slowTicks.get();
+	}
+
+	@Override
+	public long getSlowTickThresholdMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(slowTickNanos);
+	}
+
+	@Override
+	public void reset() {
+		ticks.reset();
+		slowTicks.set(0);
+	}
+}
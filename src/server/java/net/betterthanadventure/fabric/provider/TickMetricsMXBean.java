@@ -0,0 +1,24 @@
+package net.betterthanadventure.fabric.provider;
+
+/**
+ * Server tick times, registered as <code>net.betterthanadventure:type=TickMetrics</code> when
+ * <code>-Dfabric.btaProvider.tickMetrics</code> is set. Times are milliseconds per tick (MSPT) since startup or the
+ * last {@link #reset()}.
+ */
+public interface TickMetricsMXBean {
+	long getTickCount();
+
+	double getMeanMspt();
+
+	double getP50Mspt();
+
+	double getP99Mspt();
+
+	double getMaxMspt();
+
+	long getSlowTickCount();
+
+	long getSlowTickThresholdMillis();
+
+	void reset();
+}